@@ -0,0 +1,188 @@
+package net.gmx.nosefish.fishysigns.datastructures;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import net.gmx.nosefish.fishysigns.world.BlockKey;
+
+/**
+ * Maps the packed block coordinates of one world (see <code>BlockKey</code>)
+ * to sets of <code>long</code> ids. Like <code>LocationIdIndex</code>, but
+ * the keys are primitives, so lookups neither lock nor allocate.
+ * <p>
+ * The ids of a key are kept in a sorted <code>long[]</code> that is
+ * replaced, never modified, when the set changes. Readers must not
+ * modify it. Writes are serialized on this object.
+ * <p>
+ * Every chunk with a registered block has a bitset with one bit per
+ * 16 blocks high section of each of its 256 columns. <code>mightContain</code>
+ * rejects blocks in other chunks with one probe of a small map, and blocks
+ * in other sections of a watched chunk with one bit test, before the map
+ * of all keys is probed.
+ */
+public final class BlockIdIndex {
+	// 16 x 16 columns, 16 sections each
+	private static final int FILTER_LONGS = (16 * 16 * 16) / 64;
+	// the highest y that fits into a BlockKey
+	private static final int MAX_Y = 2047;
+
+	private final ConcurrentLongMap<long[]> index = new ConcurrentLongMap<long[]>();
+	// chunk, packed like a block -> bitset of the sections with registered blocks
+	private final ConcurrentLongMap<AtomicLongArray> chunkFilters = new ConcurrentLongMap<AtomicLongArray>();
+
+	/**
+	 * Adds an id to the set of a key.
+	 *
+	 * @param key
+	 *     the packed coordinates
+	 * @param id
+	 * @return
+	 *     <code>true</code> if the id was added,
+	 *     <code>false</code> if it was already registered for the key
+	 */
+	public synchronized boolean put(long key, long id) {
+		long[] ids = index.get(key);
+		long[] newIds = IdArrays.insert(ids, id);
+		if (newIds == ids) {
+			return false;
+		}
+		if (ids == null) {
+			setFilterBit(key);
+		}
+		index.put(key, newIds);
+		return true;
+	}
+
+	/**
+	 * Removes an id from the set of a key.
+	 *
+	 * @param key
+	 *     the packed coordinates
+	 * @param id
+	 * @return
+	 *     <code>true</code> if the id was removed,
+	 *     <code>false</code> if it was not registered for the key
+	 */
+	public synchronized boolean remove(long key, long id) {
+		long[] ids = index.get(key);
+		if (ids == null) {
+			return false;
+		}
+		long[] newIds = IdArrays.remove(ids, id);
+		if (newIds == ids) {
+			return false;
+		}
+		if (newIds == null) {
+			index.remove(key);
+			clearFilterBit(key);
+		} else {
+			index.put(key, newIds);
+		}
+		return true;
+	}
+
+	/**
+	 * Fast check for use in hooks. Does not lock, does not allocate.
+	 *
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @return
+	 *     <code>false</code> if no id is registered for the block,
+	 *     <code>true</code> if one might be
+	 */
+	public boolean mightContain(int x, int y, int z) {
+		AtomicLongArray filter = chunkFilters.get(chunkKey(x, z));
+		if (filter == null) {
+			return false;
+		}
+		int bit = filterBit(x, y, z);
+		return (filter.get(bit >>> 6) & (1L << bit)) != 0L;
+	}
+
+	/**
+	 * Gets the ids registered for a key. Does not lock, does not allocate.
+	 *
+	 * @param key
+	 *     the packed coordinates
+	 * @return
+	 *     the sorted ids, or <code>null</code> if there are none.
+	 *     The array is shared and must not be modified.
+	 */
+	public long[] get(long key) {
+		return index.get(key);
+	}
+
+	/**
+	 * Checks if any id is registered for a key. Does not lock, does not allocate.
+	 *
+	 * @param key
+	 *     the packed coordinates
+	 * @return <code>true</code> if there is at least one id for the key
+	 */
+	public boolean containsKey(long key) {
+		return index.containsKey(key);
+	}
+
+	/**
+	 * Removes all keys and ids.
+	 */
+	public synchronized void clear() {
+		index.clear();
+		chunkFilters.clear();
+	}
+
+	/**
+	 * Call only while synchronized on this.
+	 */
+	private void setFilterBit(long key) {
+		int x = BlockKey.unpackX(key);
+		int z = BlockKey.unpackZ(key);
+		long chunkKey = chunkKey(x, z);
+		AtomicLongArray filter = chunkFilters.get(chunkKey);
+		if (filter == null) {
+			filter = new AtomicLongArray(FILTER_LONGS);
+			chunkFilters.put(chunkKey, filter);
+		}
+		int bit = filterBit(x, BlockKey.unpackY(key), z);
+		filter.set(bit >>> 6, filter.get(bit >>> 6) | (1L << bit));
+	}
+
+	/**
+	 * Clears the bit of a removed key, unless another key in the
+	 * same section is still registered. Call only while synchronized on this.
+	 */
+	private void clearFilterBit(long key) {
+		int x = BlockKey.unpackX(key);
+		int y = BlockKey.unpackY(key);
+		int z = BlockKey.unpackZ(key);
+		long chunkKey = chunkKey(x, z);
+		AtomicLongArray filter = chunkFilters.get(chunkKey);
+		if (filter == null) {
+			return;
+		}
+		// sections above 255 share the bits of those 256 blocks below
+		for (int sectionBottom = y & 0xF0; sectionBottom <= MAX_Y; sectionBottom += 256) {
+			for (int sectionY = sectionBottom; sectionY < sectionBottom + 16; ++sectionY) {
+				if (index.containsKey(BlockKey.pack(x, sectionY, z))) {
+					return;
+				}
+			}
+		}
+		int bit = filterBit(x, y, z);
+		filter.set(bit >>> 6, filter.get(bit >>> 6) & ~(1L << bit));
+		for (int i = 0; i < FILTER_LONGS; ++i) {
+			if (filter.get(i) != 0L) {
+				return;
+			}
+		}
+		chunkFilters.remove(chunkKey);
+	}
+
+	private static long chunkKey(int x, int z) {
+		return BlockKey.pack(x >> 4, 0, z >> 4);
+	}
+
+	private static int filterBit(int x, int y, int z) {
+		return (((y >> 4) & 15) << 8) | ((z & 15) << 4) | (x & 15);
+	}
+}
@@ -0,0 +1,289 @@
+package net.gmx.nosefish.fishysigns.datastructures;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A hash map with primitive <code>long</code> keys, optimized for
+ * many concurrent readers and few writers.
+ * <p>
+ * Reads (<code>get</code>, <code>containsKey</code>) take no lock and
+ * do not allocate. Writes are serialized on an internal lock.
+ * <p>
+ * The table uses open addressing with linear probing. Removed entries
+ * keep their key slot with a <code>null</code> value until the next
+ * rehash, so readers never see a key move while they are probing.
+ * <p>
+ * The key <code>0</code> is reserved to mark empty slots and can not
+ * be stored. <code>null</code> values are not permitted.
+ *
+ * @param <V> the type of values
+ */
+public final class ConcurrentLongMap<V> {
+	private static final long EMPTY = 0L;
+	private static final int MIN_CAPACITY = 16;
+	// maximum fraction of slots in use (live entries and removed entries)
+	private static final float LOAD_FACTOR = 0.6F;
+
+	private final Object writeLock = new Object();
+	private volatile Table<V> table;
+	private int size; // guarded by writeLock
+	private int usedSlots; // guarded by writeLock
+
+	/**
+	 * Constructor
+	 */
+	public ConcurrentLongMap() {
+		this(MIN_CAPACITY);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param expectedSize
+	 *     the number of entries the map should hold without resizing
+	 */
+	public ConcurrentLongMap(int expectedSize) {
+		this.table = new Table<V>(capacityFor(expectedSize));
+	}
+
+	/**
+	 * Gets the value for the key. Does not lock, does not allocate.
+	 *
+	 * @param key
+	 *     the key
+	 * @return
+	 *     the value, or <code>null</code> if there is no mapping for the key
+	 */
+	public V get(long key) {
+		if (key == EMPTY) {
+			return null;
+		}
+		Table<V> t = this.table;
+		int mask = t.mask;
+		int slot = spread(key) & mask;
+		while (true) {
+			long slotKey = t.keys.get(slot);
+			if (slotKey == key) {
+				return t.values.get(slot);
+			}
+			if (slotKey == EMPTY) {
+				return null;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	/**
+	 * Checks if the map contains a mapping for the key. Does not lock, does not allocate.
+	 *
+	 * @param key
+	 *     the key
+	 * @return
+	 *     <code>true</code> if there is a mapping for the key, <code>false</code> otherwise
+	 */
+	public boolean containsKey(long key) {
+		return get(key) != null;
+	}
+
+	/**
+	 * Maps the key to the value, replacing any previous mapping.
+	 *
+	 * @param key
+	 *     the key, must not be 0
+	 * @param value
+	 *     the value, must not be <code>null</code>
+	 * @return
+	 *     the previous value, or <code>null</code> if there was none
+	 */
+	public V put(long key, V value) {
+		if (key == EMPTY) {
+			throw new IllegalArgumentException("ConcurrentLongMap: the key 0 is reserved");
+		}
+		if (value == null) {
+			throw new NullPointerException("ConcurrentLongMap does not permit null values");
+		}
+		synchronized(writeLock) {
+			Table<V> t = this.table;
+			int slot = findSlot(t, key);
+			if (t.keys.get(slot) == key) {
+				V old = t.values.get(slot);
+				t.values.set(slot, value);
+				if (old == null) {
+					++size;
+				}
+				return old;
+			}
+			if ((usedSlots + 1) > (int)(t.capacity() * LOAD_FACTOR)) {
+				t = rehash(size + 1);
+				slot = findSlot(t, key);
+			}
+			// value first, the volatile key write publishes it to readers
+			t.values.set(slot, value);
+			t.keys.set(slot, key);
+			++usedSlots;
+			++size;
+			return null;
+		}
+	}
+
+	/**
+	 * Removes the mapping for the key.
+	 *
+	 * @param key
+	 *     the key
+	 * @return
+	 *     the value that was removed, or <code>null</code> if there was none
+	 */
+	public V remove(long key) {
+		if (key == EMPTY) {
+			return null;
+		}
+		synchronized(writeLock) {
+			Table<V> t = this.table;
+			int slot = findSlot(t, key);
+			if (t.keys.get(slot) != key) {
+				return null;
+			}
+			V old = t.values.getAndSet(slot, null);
+			if (old != null) {
+				--size;
+			}
+			return old;
+		}
+	}
+
+	/**
+	 * Removes all mappings.
+	 */
+	public void clear() {
+		synchronized(writeLock) {
+			this.table = new Table<V>(MIN_CAPACITY);
+			this.size = 0;
+			this.usedSlots = 0;
+		}
+	}
+
+	/**
+	 * Gets the number of mappings.
+	 *
+	 * @return the size
+	 */
+	public int size() {
+		synchronized(writeLock) {
+			return size;
+		}
+	}
+
+	/**
+	 * Checks whether the map is empty.
+	 *
+	 * @return <code>true</code> if there are no mappings
+	 */
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	/**
+	 * Gets all keys that were mapped at some point during the call.
+	 * Does not lock.
+	 *
+	 * @return
+	 *     the keys, in no particular order
+	 */
+	public long[] keys() {
+		Table<V> t = this.table;
+		long[] result = new long[8];
+		int count = 0;
+		for (int slot = 0; slot < t.capacity(); ++slot) {
+			long key = t.keys.get(slot);
+			if (key != EMPTY && t.values.get(slot) != null) {
+				if (count == result.length) {
+					long[] larger = new long[result.length * 2];
+					System.arraycopy(result, 0, larger, 0, count);
+					result = larger;
+				}
+				result[count++] = key;
+			}
+		}
+		long[] trimmed = new long[count];
+		System.arraycopy(result, 0, trimmed, 0, count);
+		return trimmed;
+	}
+
+	/**
+	 * Finds the slot that holds the key, or the empty slot
+	 * where it would be inserted. Call only while holding the writeLock.
+	 */
+	private static int findSlot(Table<?> t, long key) {
+		int mask = t.mask;
+		int slot = spread(key) & mask;
+		while (true) {
+			long slotKey = t.keys.get(slot);
+			if (slotKey == key || slotKey == EMPTY) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	/**
+	 * Copies all live entries into a new table and publishes it.
+	 * Removed entries are dropped. Call only while holding the writeLock.
+	 */
+	private Table<V> rehash(int liveEntries) {
+		Table<V> oldTable = this.table;
+		Table<V> newTable = new Table<V>(capacityFor(liveEntries));
+		int used = 0;
+		for (int slot = 0; slot < oldTable.capacity(); ++slot) {
+			long key = oldTable.keys.get(slot);
+			V value = oldTable.values.get(slot);
+			if (key != EMPTY && value != null) {
+				int newSlot = findSlot(newTable, key);
+				newTable.values.set(newSlot, value);
+				newTable.keys.set(newSlot, key);
+				++used;
+			}
+		}
+		this.usedSlots = used;
+		this.table = newTable;
+		return newTable;
+	}
+
+	private static int capacityFor(int expectedSize) {
+		int needed = (int) Math.ceil(Math.max(expectedSize, 1) / LOAD_FACTOR) + 1;
+		int capacity = MIN_CAPACITY;
+		while (capacity < needed) {
+			capacity <<= 1;
+		}
+		return capacity;
+	}
+
+	/**
+	 * Scrambles the key bits, so that sequential ids and packed
+	 * coordinates don't end up in clusters.
+	 */
+	private static int spread(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int)(h ^ (h >>> 32));
+	}
+
+	/**
+	 * The slot arrays. Keys are never moved or reset within a table.
+	 */
+	private static final class Table<V> {
+		final AtomicLongArray keys;
+		final AtomicReferenceArray<V> values;
+		final int mask;
+
+		Table(int capacity) {
+			this.keys = new AtomicLongArray(capacity);
+			this.values = new AtomicReferenceArray<V>(capacity);
+			this.mask = capacity - 1;
+		}
+
+		int capacity() {
+			return mask + 1;
+		}
+	}
+}
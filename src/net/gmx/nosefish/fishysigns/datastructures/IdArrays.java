@@ -0,0 +1,63 @@
+package net.gmx.nosefish.fishysigns.datastructures;
+
+import java.util.Arrays;
+
+/**
+ * Copy-on-write operations on the sorted id arrays of the indexes.
+ * The arrays passed in are never modified.
+ */
+final class IdArrays {
+	private IdArrays() {
+		// static utility class
+	}
+
+	/**
+	 * Adds an id to a sorted array.
+	 *
+	 * @param ids
+	 *     the sorted ids, may be <code>null</code>
+	 * @param id
+	 * @return
+	 *     a new array with the id, or <code>ids</code> if it already contains the id
+	 */
+	static long[] insert(long[] ids, long id) {
+		if (ids == null) {
+			return new long[] {id};
+		}
+		int pos = Arrays.binarySearch(ids, id);
+		if (pos >= 0) {
+			// already there
+			return ids;
+		}
+		int insertAt = -(pos + 1);
+		long[] newIds = new long[ids.length + 1];
+		System.arraycopy(ids, 0, newIds, 0, insertAt);
+		newIds[insertAt] = id;
+		System.arraycopy(ids, insertAt, newIds, insertAt + 1, ids.length - insertAt);
+		return newIds;
+	}
+
+	/**
+	 * Removes an id from a sorted array.
+	 *
+	 * @param ids
+	 *     the sorted ids
+	 * @param id
+	 * @return
+	 *     a new array without the id, <code>null</code> if it would be empty,
+	 *     or <code>ids</code> if it does not contain the id
+	 */
+	static long[] remove(long[] ids, long id) {
+		int pos = Arrays.binarySearch(ids, id);
+		if (pos < 0) {
+			return ids;
+		}
+		if (ids.length == 1) {
+			return null;
+		}
+		long[] newIds = new long[ids.length - 1];
+		System.arraycopy(ids, 0, newIds, 0, pos);
+		System.arraycopy(ids, pos + 1, newIds, pos, ids.length - pos - 1);
+		return newIds;
+	}
+}
@@ -0,0 +1,117 @@
+package net.gmx.nosefish.fishysigns.datastructures;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps keys (usually locations) to sets of <code>long</code> ids,
+ * optimized for many concurrent readers and few writers.
+ * <p>
+ * The ids of a key are kept in a sorted <code>long[]</code> that is
+ * replaced, never modified, when the set changes. Readers get the
+ * current array without locking and can iterate over it without
+ * boxing. They must not modify it.
+ * <p>
+ * A side table maps each id to its keys, so that
+ * <code>removeValue</code> does not have to scan the whole index.
+ * Writes are serialized on an internal lock.
+ *
+ * @param <K> the type of keys
+ */
+public final class LocationIdIndex<K> {
+	private final Object writeLock = new Object();
+	private final ConcurrentHashMap<K, long[]> index = new ConcurrentHashMap<K, long[]>();
+	// id -> keys it is registered with, guarded by writeLock
+	private final ConcurrentLongMap<List<K>> keysOfId = new ConcurrentLongMap<List<K>>();
+
+	/**
+	 * Adds an id to the set of a key.
+	 *
+	 * @param key
+	 * @param id
+	 *     the id, must not be <code>0</code>
+	 * @return
+	 *     <code>true</code> if the id was added,
+	 *     <code>false</code> if it was already registered for the key
+	 */
+	public boolean put(K key, long id) {
+		synchronized (writeLock) {
+			long[] ids = index.get(key);
+			long[] newIds = IdArrays.insert(ids, id);
+			if (newIds == ids) {
+				return false;
+			}
+			index.put(key, newIds);
+			List<K> keys = keysOfId.get(id);
+			if (keys == null) {
+				keys = new ArrayList<K>(1);
+				keysOfId.put(id, keys);
+			}
+			keys.add(key);
+		}
+		return true;
+	}
+
+	/**
+	 * Gets the ids registered for a key. Does not lock.
+	 *
+	 * @param key
+	 * @return
+	 *     the sorted ids, or <code>null</code> if there are none.
+	 *     The array is shared and must not be modified.
+	 */
+	public long[] get(Object key) {
+		return index.get(key);
+	}
+
+	/**
+	 * Checks if any id is registered for a key. Does not lock.
+	 *
+	 * @param key
+	 * @return <code>true</code> if there is at least one id for the key
+	 */
+	public boolean containsKey(Object key) {
+		return index.containsKey(key);
+	}
+
+	/**
+	 * Removes an id from all keys.
+	 *
+	 * @param id
+	 * @return
+	 *     the keys the id was registered with
+	 */
+	public List<K> removeValue(long id) {
+		synchronized (writeLock) {
+			List<K> keys = keysOfId.remove(id);
+			if (keys == null) {
+				return Collections.emptyList();
+			}
+			for (K key : keys) {
+				long[] ids = index.get(key);
+				if (ids == null) {
+					continue;
+				}
+				long[] newIds = IdArrays.remove(ids, id);
+				if (newIds == null) {
+					index.remove(key);
+				} else if (newIds != ids) {
+					index.put(key, newIds);
+				}
+			}
+			return keys;
+		}
+	}
+
+	/**
+	 * Removes all keys and ids.
+	 */
+	public void clear() {
+		synchronized (writeLock) {
+			index.clear();
+			keysOfId.clear();
+		}
+	}
+}
@@ -1,6 +1,7 @@
 package net.gmx.nosefish.fishysigns.iobox;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
@@ -8,11 +9,13 @@ import java.util.TreeMap;
 import net.gmx.nosefish.fishylib.blocks.BlockInfo;
 import net.gmx.nosefish.fishylib.worldmath.FishyLocationInt;
 import net.gmx.nosefish.fishysigns.anchor.IAnchor;
+import net.gmx.nosefish.fishysigns.datastructures.ConcurrentLongMap;
 import net.gmx.nosefish.fishysigns.exception.UnsupportedActivatorException;
 import net.gmx.nosefish.fishysigns.watcher.RedstoneChangeWatcher;
 import net.gmx.nosefish.fishysigns.watcher.activator.ActivatorRedstone;
 import net.gmx.nosefish.fishysigns.watcher.activator.IActivator;
 import net.gmx.nosefish.fishysigns.watcher.activator.FishyRedstoneChange;
+import net.gmx.nosefish.fishysigns.world.BlockKey;
 import net.gmx.nosefish.fishysigns.world.FishyBlockState;
 import net.gmx.nosefish.fishysigns.world.Unsafe;
 
@@ -41,6 +44,11 @@ import net.gmx.nosefish.fishysigns.world.Unsafe;
  */
 public class DirectInputBox extends AnchoredActivatableBox {
 	public static interface IDirectInputHandler extends IAnchor{
+		/**
+		 * Called when the sign signal has changed. A pulse that started
+		 * and ended within one tick is replayed as two calls with the
+		 * same tick stamp.
+		 */
 		public void handleDirectInputChange(IOSignal oldInput, IOSignal newInput, long tickStamp);
 	}
 	
@@ -58,6 +66,13 @@ public class DirectInputBox extends AnchoredActivatableBox {
 	// wiring
 	protected final Map<Integer, Integer> phys2sign;
 	
+	// compiled from phys2sign and physInput by compileRouting
+	// physical pin -> sign pin, -1 if not wired
+	protected int[] signPinOfPhysPin;
+	// packed input location (BlockKey) -> physical pins
+	protected ConcurrentLongMap<int[]> physPinsOfLocation;
+	protected boolean routingValid = false;
+	
 	// sign side
 	protected final boolean[] signSignal;
 
@@ -90,6 +105,7 @@ public class DirectInputBox extends AnchoredActivatableBox {
 	public void setInputPinLocation(int physicalPin, FishyLocationInt location) {
 		synchronized(lock) {
 			physInput.add(physicalPin, location);
+			routingValid = false;
 		}
 	}
 	
@@ -102,6 +118,7 @@ public class DirectInputBox extends AnchoredActivatableBox {
 			for (int pin = 0; pin < locationArray.length; pin++) {
 				physInput.add(pin, locationArray[pin]);
 			}
+			routingValid = false;
 		}
 	}
 	
@@ -115,6 +132,7 @@ public class DirectInputBox extends AnchoredActivatableBox {
 				throw new IllegalArgumentException("physicalPin out of range");
 			}
 			phys2sign.put(physicalPin, signPin);
+			routingValid = false;
 		}
 	}
 	
@@ -124,6 +142,7 @@ public class DirectInputBox extends AnchoredActivatableBox {
 			for (int pin = 0; pin < getPhysicalPinCount(); pin++) {
 				phys2sign.put(pin, 0);
 			}
+			routingValid = false;
 		}
 	}
 	
@@ -134,12 +153,14 @@ public class DirectInputBox extends AnchoredActivatableBox {
 			for (int i = 0; i < lowerPinCount; i++) {
 				phys2sign.put(i, i);
 			}
+			routingValid = false;
 		}
 	}
 	
 	
 	public void finishInit() {
 		synchronized(lock) {
+			compileRouting();
 			updateInputFromWorld();
 			refreshSignSignal();
 			for (FishyLocationInt blockLoc : getInputLocations()) {
@@ -185,41 +206,125 @@ public class DirectInputBox extends AnchoredActivatableBox {
 	}
 	
 	
-	protected void updateInput(List<FishyRedstoneChange> rsChanges) {
+	/**
+	 * Applies the redstone changes to the inputs.
+	 * 
+	 * @param rsChanges
+	 *     the coalesced changes
+	 * @return
+	 *     the sign signal in the middle of the pulses that were lost
+	 *     by coalescing (see <code>FishyRedstoneChange.getGlitchCount</code>),
+	 *     or <code>null</code> if there were none
+	 */
+	protected IOSignal updateInput(List<FishyRedstoneChange> rsChanges) {
 		long tick = 0;
 		synchronized(lock) {
-			for (int pin = 0; pin < getPhysicalPinCount(); ++pin) {
-				// Assumption: only one change per input block per Activator
-				for (FishyRedstoneChange change : rsChanges) {
-					FishyLocationInt changeLocation = change.getLocation();
-					if (physInput.get(pin).equals(changeLocation)){
-						tick = change.getTick();
-						short id = change.getBlockState().getTypeId();
-						short data = change.getBlockState().getData();
-						if (Unsafe.unsafeGetDirectInput(changeLocation, id, data, boxLocation)) {
-							physSignal[pin] = change.getNewLevel() > 0;
-							break;
-						} else {
-							physSignal[pin] = false;
-							break;
-						}
+			if (! routingValid) {
+				compileRouting();
+			}
+			boolean[] glitchSignal = null;
+			// RedstoneChangeWatcher coalesces changes, there is only one change per input block per Activator
+			for (FishyRedstoneChange change : rsChanges) {
+				FishyLocationInt changeLocation = change.getLocation();
+				int[] pins = physPinsOfLocation.get(BlockKey.pack(changeLocation));
+				if (pins == null) {
+					continue;
+				}
+				tick = change.getTick();
+				short id = change.getBlockState().getTypeId();
+				short data = change.getBlockState().getData();
+				Boolean isDirect = Unsafe.unsafeGetDirectInput(changeLocation, id, data, boxLocation);
+				boolean signal = (isDirect != null && isDirect) && change.getNewLevel() > 0;
+				boolean glitched = (isDirect != null && isDirect) && change.getGlitchCount() > 0;
+				if (glitched && glitchSignal == null) {
+					glitchSignal = physSignal.clone();
+				}
+				for (int pin : pins) {
+					physSignal[pin] = signal;
+					if (glitchSignal != null) {
+						// a glitched pin had the other level in the middle of the lost pulse
+						glitchSignal[pin] = glitched ? ! signal : signal;
 					}
 				}
 			}
 			tickStamp = tick;
+			IOSignal glitch = null;
+			if (glitchSignal != null) {
+				glitch = IOSignal.factory(toSignSignal(glitchSignal));
+			}
 			refreshSignSignal();
+			return glitch;
 		}
 	}
 
 	
 	public void refreshSignSignal() {
 		synchronized(lock) {
-			for (int pin = 0; pin < getSignPinCount(); pin++) {
-				signSignal[pin] = false;
+			boolean[] signal = toSignSignal(physSignal);
+			System.arraycopy(signal, 0, signSignal, 0, signal.length);
+		}
+	}
+	
+	/**
+	 * Routes a physical signal to the sign pins.
+	 * 
+	 * @param physical
+	 *     the signal of each physical pin
+	 * @return
+	 *     the signal of each sign pin
+	 */
+	protected boolean[] toSignSignal(boolean[] physical) {
+		synchronized(lock) {
+			if (! routingValid) {
+				compileRouting();
 			}
-			for (int pin = 0; pin < getPhysicalPinCount(); pin++) {
-				signSignal[phys2sign.get(pin)] |= physSignal[pin];
+			boolean[] signal = new boolean[getSignPinCount()];
+			for (int pin = 0; pin < signPinOfPhysPin.length; pin++) {
+				int signPin = signPinOfPhysPin[pin];
+				if (signPin >= 0) {
+					signal[signPin] |= physical[pin];
+				}
 			}
+			return signal;
+		}
+	}
+	
+	/**
+	 * Compiles the wiring and the input locations into
+	 * lookup tables for <code>updateInput</code> and
+	 * <code>refreshSignSignal</code>.
+	 * Called by <code>finishInit</code>, and again when the
+	 * wiring or the locations have changed.
+	 */
+	protected void compileRouting() {
+		synchronized(lock) {
+			int physPinCount = getPhysicalPinCount();
+			int[] routing = new int[physPinCount];
+			for (int pin = 0; pin < physPinCount; ++pin) {
+				Integer signPin = phys2sign.get(pin);
+				routing[pin] = (signPin == null) ? -1 : signPin;
+			}
+			ConcurrentLongMap<int[]> pinsOfLocation = new ConcurrentLongMap<int[]>(physPinCount);
+			int locationCount = Math.min(physPinCount, physInput.size());
+			for (int pin = 0; pin < locationCount; ++pin) {
+				FishyLocationInt location = physInput.get(pin);
+				if (location == null) {
+					continue;
+				}
+				// all inputs are next to the box, so they are in the same world
+				long key = BlockKey.pack(location);
+				int[] pins = pinsOfLocation.get(key);
+				if (pins == null) {
+					pins = new int[] {pin};
+				} else {
+					pins = Arrays.copyOf(pins, pins.length + 1);
+					pins[pins.length - 1] = pin;
+				}
+				pinsOfLocation.put(key, pins);
+			}
+			signPinOfPhysPin = routing;
+			physPinsOfLocation = pinsOfLocation;
+			routingValid = true;
 		}
 	}
 	
@@ -282,8 +387,13 @@ public class DirectInputBox extends AnchoredActivatableBox {
 		}
 		ActivatorRedstone rsActivator = (ActivatorRedstone) activator;
 		IOSignal oldInput = this.getSignal();
-		this.updateInput(rsActivator.getChanges());
+		IOSignal glitch = this.updateInput(rsActivator.getChanges());
 		IOSignal newInput = this.getSignal();
+		if (glitch != null && ! glitch.equals(oldInput) && ! glitch.equals(newInput)) {
+			// replay a pulse that started and ended within the tick
+			handler.handleDirectInputChange(oldInput, glitch, tickStamp);
+			oldInput = glitch;
+		}
 		if (! oldInput.equals(newInput)) {
 			handler.handleDirectInputChange(oldInput, newInput, tickStamp);
 		}
@@ -4,94 +4,190 @@ import java.util.Arrays;
 
 /**
  * Input/Output signal. Immutable.
- * 
+ * <p>
+ * The state of pin <code>n</code> is bit <code>n</code> of a <code>long</code>
+ * mask. Signals with more than 64 pins keep the first 64 in the mask and all
+ * of them in an additional array. Signals with up to <code>CACHED_PINS</code>
+ * pins are interned, so <code>factory</code> does not allocate for them.
+ *
  * @author Stefan Steinheimer (nosefish)
  *
  */
 public class IOSignal {
-	public static IOSignal ZERO_LENGTH = new IOSignal(new boolean[0]);
-	
-	public static IOSignal L = new IOSignal(false);
-	public static IOSignal H = new IOSignal(true);
-	
-	public static IOSignal LL = new IOSignal(false, false);
-	public static IOSignal HH = new IOSignal(true, true);
-	public static IOSignal LH = new IOSignal(false, true);
-	public static IOSignal HL = new IOSignal(true, false);
-	
-	public static IOSignal LLL = new IOSignal(false, false, false);
-	public static IOSignal HHH = new IOSignal(true, true, true);
-	public static IOSignal HLL = new IOSignal(true, false, false);
-	public static IOSignal LHL = new IOSignal(false, true, false);
-	public static IOSignal LLH = new IOSignal(false, false, true);
-	public static IOSignal LHH = new IOSignal(false, true, true);
-	public static IOSignal HLH = new IOSignal(true, false, true);
-	public static IOSignal HHL = new IOSignal(true, true, false);
-
-	private static final IOSignal[][] predef = new IOSignal[][] {
-		{L, H},
-		{LL, HH, LH, HL},
-		{LLL, HHH, HLL, LHL, LLH, LHH, HLH, HHL}
-	};
-	
+	/**
+	 * Signals with up to this many pins are interned.
+	 */
+	public static final int CACHED_PINS = 8;
+	/**
+	 * The number of pins kept in the bit mask.
+	 */
+	public static final int MASK_PINS = 64;
+
+	// must be initialized before the constants below
+	// cache[pinCount][mask]
+	private static final IOSignal[][] cache = buildCache();
+
+	public static IOSignal ZERO_LENGTH = factory(0, 0L);
+
+	public static IOSignal L = factory(false);
+	public static IOSignal H = factory(true);
+
+	public static IOSignal LL = factory(false, false);
+	public static IOSignal HH = factory(true, true);
+	public static IOSignal LH = factory(false, true);
+	public static IOSignal HL = factory(true, false);
+
+	public static IOSignal LLL = factory(false, false, false);
+	public static IOSignal HHH = factory(true, true, true);
+	public static IOSignal HLL = factory(true, false, false);
+	public static IOSignal LHL = factory(false, true, false);
+	public static IOSignal LLH = factory(false, false, true);
+	public static IOSignal LHH = factory(false, true, true);
+	public static IOSignal HLH = factory(true, false, true);
+	public static IOSignal HHL = factory(true, true, false);
+
 	// the actual signal
-	private volatile boolean[] inputs;
-	
+	private final int pinCount;
+	private final long mask;
+	// only for more than 64 pins, null otherwise
+	private final boolean[] wide;
+
 	public static IOSignal factory(boolean... inputs) {
 		if (inputs == null) {
 			throw new NullPointerException("Expected array of boolean, got null.");
 		}
-		// is there a predefined signal for this?
-		if (inputs.length == 0) {
-			return ZERO_LENGTH;
+		long mask = 0L;
+		int maskPins = Math.min(inputs.length, MASK_PINS);
+		for (int pin = 0; pin < maskPins; ++pin) {
+			if (inputs[pin]) {
+				mask |= 1L << pin;
+			}
+		}
+		if (inputs.length > MASK_PINS) {
+			return new IOSignal(inputs.length, mask, inputs.clone());
 		}
-		if (inputs.length <= predef.length) {
-			int pIndex = inputs.length - 1;
-			for (IOSignal signal : predef[pIndex]) {
-				if (Arrays.equals(signal.inputs, inputs)) {
-					return signal;
-				}
+		return factory(inputs.length, mask);
+	}
+
+	/**
+	 * Gets a signal from its bit mask.
+	 *
+	 * @param pinCount
+	 *     the number of pins, 0 to 64
+	 * @param mask
+	 *     bit <code>n</code> is the state of pin <code>n</code>.
+	 *     Bits above <code>pinCount</code> are ignored.
+	 * @return the signal
+	 */
+	public static IOSignal factory(int pinCount, long mask) {
+		if (pinCount < 0 || pinCount > MASK_PINS) {
+			throw new IllegalArgumentException("pinCount must be between 0 and " + MASK_PINS);
+		}
+		long validMask = mask & allPins(pinCount);
+		if (pinCount <= CACHED_PINS) {
+			return cache[pinCount][(int) validMask];
+		}
+		return new IOSignal(pinCount, validMask, null);
+	}
+
+	private IOSignal(int pinCount, long mask, boolean[] wide) {
+		this.pinCount = pinCount;
+		this.mask = mask;
+		this.wide = wide;
+	}
+
+	private static IOSignal[][] buildCache() {
+		IOSignal[][] newCache = new IOSignal[CACHED_PINS + 1][];
+		for (int pins = 0; pins <= CACHED_PINS; ++pins) {
+			newCache[pins] = new IOSignal[1 << pins];
+			for (int mask = 0; mask < (1 << pins); ++mask) {
+				newCache[pins][mask] = new IOSignal(pins, mask, null);
 			}
 		}
-		// too long for a predefined signal, let's make a new one
-		return new IOSignal(inputs);
+		return newCache;
 	}
-	
-	private IOSignal(boolean... inputs) {
-		this.inputs = inputs.clone();
+
+	private static long allPins(int pinCount) {
+		return (pinCount >= MASK_PINS) ? -1L : (1L << pinCount) - 1L;
 	}
-	
+
 	public int getNumberOfPins() {
-		return inputs.length;
+		return pinCount;
 	}
-	
+
 	public boolean getState(int pin) {
-		return inputs[pin];
+		if (pin < 0 || pin >= pinCount) {
+			throw new ArrayIndexOutOfBoundsException(pin);
+		}
+		if (pin < MASK_PINS) {
+			return ((mask >>> pin) & 1L) != 0L;
+		}
+		return wide[pin];
+	}
+
+	/**
+	 * Gets the states of the first 64 pins as a bit mask.
+	 *
+	 * @return
+	 *     the mask, bit <code>n</code> is the state of pin <code>n</code>
+	 */
+	public long getMask() {
+		return mask;
 	}
-	
+
 	public boolean[] toArray() {
-		return inputs.clone();
+		if (wide != null) {
+			return wide.clone();
+		}
+		boolean[] result = new boolean[pinCount];
+		for (int pin = 0; pin < pinCount; ++pin) {
+			result[pin] = ((mask >>> pin) & 1L) != 0L;
+		}
+		return result;
 	}
 
 	public IOSignal getInverse() {
-		if (this == H) {
-			return L;
-		} else if (this == L) {
-			return H;
+		if (wide == null) {
+			return factory(pinCount, ~mask);
 		}
-		// longer signals will be inverted rarely
-		// and a huge if-then-else construct probably
-		// wouldn't be faster
 		boolean[] sigArray = this.toArray();
 		for (int i = 0; i < sigArray.length; i++) {
 			sigArray[i] = ! sigArray[i];
 		}
 		return IOSignal.factory(sigArray);
 	}
-	
+
+	/**
+	 * Gets the pins that are low in this signal and high in the newer one.
+	 * Only covers the first 64 pins.
+	 *
+	 * @param newer
+	 * @return
+	 *     the mask of pins with a rising edge
+	 */
+	public long getRisingEdges(IOSignal newer) {
+		return ~this.mask & newer.mask;
+	}
+
+	/**
+	 * Gets the pins that are high in this signal and low in the newer one.
+	 * Only covers the first 64 pins.
+	 *
+	 * @param newer
+	 * @return
+	 *     the mask of pins with a falling edge
+	 */
+	public long getFallingEdges(IOSignal newer) {
+		return this.mask & ~newer.mask;
+	}
+
 	@Override
 	public int hashCode() {
-		return Arrays.hashCode(inputs);
+		int hash = 31 * pinCount + (int) (mask ^ (mask >>> 32));
+		if (wide != null) {
+			hash = 31 * hash + Arrays.hashCode(wide);
+		}
+		return hash;
 	}
 
 
@@ -104,21 +200,24 @@ public class IOSignal {
 		if (getClass() != obj.getClass())
 			return false;
 		IOSignal other = (IOSignal) obj;
-		return Arrays.equals(inputs, other.inputs);
+		if (pinCount != other.pinCount || mask != other.mask) {
+			return false;
+		}
+		return (wide == null) || Arrays.equals(wide, other.wide);
 	}
-	
+
 	@Override
 	public String toString() {
 		StringBuilder build = new StringBuilder(8);
 		build.append("[");
-		for (int i = 0; i < inputs.length; ++i) {
-			build.append(inputs[i]);
-			if (i < inputs.length - 1) {
+		for (int i = 0; i < pinCount; ++i) {
+			build.append(getState(i));
+			if (i < pinCount - 1) {
 				build.append(", ");
 			}
 		}
 		build.append("]");
 		return build.toString();
 	}
-	
+
 }
@@ -9,12 +9,12 @@ import net.gmx.nosefish.fishysigns.anchor.IAnchor;
 import net.gmx.nosefish.fishysigns.exception.DisabledException;
 import net.gmx.nosefish.fishysigns.exception.UnsupportedActivatorException;
 import net.gmx.nosefish.fishysigns.plugin.engine.ServerTicker;
-import net.gmx.nosefish.fishysigns.task.common.SetLeverTask;
 import net.gmx.nosefish.fishysigns.watcher.PlayerRightClickWatcher;
 import net.gmx.nosefish.fishysigns.watcher.activator.ActivatorPlayerRightClick;
 import net.gmx.nosefish.fishysigns.watcher.activator.IActivator;
 import net.gmx.nosefish.fishysigns.world.FishyBlockState;
 import net.gmx.nosefish.fishysigns.world.Unsafe;
+import net.gmx.nosefish.fishysigns.world.WorldWriteBuffer;
 
 public class LeverIOBox extends AnchoredActivatableBox {
 	public static interface ILeverIOHandler extends IAnchor{
@@ -156,8 +156,7 @@ public class LeverIOBox extends AnchoredActivatableBox {
 			for (int pin = 0; pin < lowerPinCount; pin++) {
 				if (physSignal[pin] != signal.getState(pin)) {
 					physSignal[pin] = signal.getState(pin);
-					SetLeverTask setLever = new SetLeverTask(physOutput.get(pin), physSignal[pin], targetTick);
-					setLever.submit();
+					WorldWriteBuffer.getInstance().setLever(physOutput.get(pin), physSignal[pin], targetTick);
 				}
 			}
 			//refreshOutput();
@@ -178,8 +177,7 @@ public class LeverIOBox extends AnchoredActivatableBox {
 	public void toggleOutputOnTick(int pin, long targetTick) {
 		synchronized(lock) {
 			this.physSignal[pin] = ! physSignal[pin];
-			SetLeverTask setLever = new SetLeverTask(physOutput.get(pin), physSignal[pin], targetTick);
-			setLever.submit();
+			WorldWriteBuffer.getInstance().setLever(physOutput.get(pin), physSignal[pin], targetTick);
 		}
 	}
 	
@@ -192,8 +190,7 @@ public class LeverIOBox extends AnchoredActivatableBox {
 		}
 		synchronized(lock) {
 			for (int pin = 0; pin < getPinCount(); ++pin) {
-				SetLeverTask setLever = new SetLeverTask(physOutput.get(pin), physSignal[pin], now);
-				setLever.submit();
+				WorldWriteBuffer.getInstance().setLever(physOutput.get(pin), physSignal[pin], now);
 			}
 		}
 	}
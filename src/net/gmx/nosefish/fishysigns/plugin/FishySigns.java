@@ -1,11 +1,13 @@
 package net.gmx.nosefish.fishysigns.plugin;
 
+import java.io.File;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
 
 import net.canarymod.Canary;
 import net.canarymod.api.world.Chunk;
@@ -20,12 +22,17 @@ import net.gmx.nosefish.fishysigns.plugin.engine.FishyEngineListener;
 import net.gmx.nosefish.fishysigns.plugin.engine.FishySignClassLoader;
 import net.gmx.nosefish.fishysigns.plugin.engine.FishySignFinderTask;
 import net.gmx.nosefish.fishysigns.plugin.engine.ServerTicker;
+import net.gmx.nosefish.fishysigns.plugin.engine.TickPipeline;
 import net.gmx.nosefish.fishysigns.task.FishyTask;
 import net.gmx.nosefish.fishysigns.task.FishyTaskManager;
+import net.gmx.nosefish.fishysigns.task.TaskRunnerConfig;
 import net.gmx.nosefish.fishysigns.watcher.ChunkTracker;
 import net.gmx.nosefish.fishysigns.watcher.IFishyWatcher;
+import net.gmx.nosefish.fishysigns.watcher.PollingBlockChangeWatcher;
+import net.gmx.nosefish.fishysigns.world.WorldWriteBuffer;
 
 public class FishySigns extends Plugin implements TaskOwner{
+	private static final String CONFIG_FILE = "plugins/fishysigns/fishysigns.properties";
 	private static Set<IFishyWatcher> watchers = Collections.newSetFromMap(
 	                                             new WeakHashMap<IFishyWatcher, Boolean>(8, 0.9f));
 	private static volatile WeakReference<FishySigns> instance = new WeakReference<FishySigns>(null);
@@ -35,7 +42,11 @@ public class FishySigns extends Plugin implements TaskOwner{
 		instance = new WeakReference<FishySigns>(this);
 		Log.initialize(this);
 		ServerTicker.getInstance().start();
-		FishyTaskManager.initialize(this);
+		TaskRunnerConfig config = TaskRunnerConfig.load(new File(CONFIG_FILE));
+		FishyTaskManager.initialize(config);
+		TickPipeline.getInstance().setJoinTimeout(config.getPipelineJoinTimeoutMillis(), TimeUnit.MILLISECONDS);
+		PollingBlockChangeWatcher.getInstance().setScanBudget(config.getPollingScanBudgetMicros(), TimeUnit.MICROSECONDS);
+		ActivationManager.getInstance().setLaneCount(config.getActivationLanes());
 		// TODO: this isn't pretty, but we must load the classes here. Is there a better way?
 		ActivationManager.getInstance().enable();
 		ChunkTracker.getInstance().enable();
@@ -52,6 +63,8 @@ public class FishySigns extends Plugin implements TaskOwner{
 		disableWatchers();
 		FishyTaskManager.getInstance().shutdown();
 		ServerTicker.getInstance().shutdown();
+		WorldWriteBuffer.getInstance().clear();
+		TickPipeline.getInstance().reset();
 		ServerTaskManager.removeTasksForPlugin(this);
 	}
 	
@@ -0,0 +1,108 @@
+package net.gmx.nosefish.fishysigns.plugin.engine;
+
+import java.util.Arrays;
+
+import net.gmx.nosefish.fishysigns.watcher.activator.IActivator;
+
+/**
+ * A batch of id/<code>Activator</code> pairs for the
+ * <code>ActivationManager</code>. Watchers fill one of these
+ * per tick and hand it to <code>ActivationManager.activateAll</code>,
+ * which dispatches the whole batch as one unit.
+ * <p>
+ * Not thread-safe. Fill it in one thread, then pass it on
+ * and don't touch it again.
+ */
+public final class ActivationBatch {
+	private static final int DEFAULT_CAPACITY = 16;
+
+	private long[] ids;
+	private IActivator[] activators;
+	private int size = 0;
+
+	/**
+	 * Constructor
+	 */
+	public ActivationBatch() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param expectedSize
+	 *     the number of activations this batch will probably hold
+	 */
+	public ActivationBatch(int expectedSize) {
+		int capacity = Math.max(expectedSize, 1);
+		this.ids = new long[capacity];
+		this.activators = new IActivator[capacity];
+	}
+
+	/**
+	 * Adds an activation to the batch.
+	 *
+	 * @param id
+	 *     the id of the <code>Activatable</code>
+	 * @param activator
+	 *     the <code>Activator</code> to send to it
+	 */
+	public void add(long id, IActivator activator) {
+		if (size == ids.length) {
+			int newCapacity = ids.length * 2;
+			ids = Arrays.copyOf(ids, newCapacity);
+			activators = Arrays.copyOf(activators, newCapacity);
+		}
+		ids[size] = id;
+		activators[size] = activator;
+		++size;
+	}
+
+	/**
+	 * Adds the same <code>Activator</code> for all ids.
+	 *
+	 * @param activator
+	 *     the <code>Activator</code> to send
+	 * @param toActivate
+	 *     the ids of the <code>Activatables</code>
+	 */
+	public void addAll(IActivator activator, long[] toActivate) {
+		for (long id : toActivate) {
+			add(id, activator);
+		}
+	}
+
+	/**
+	 * @return the number of activations in this batch
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return <code>true</code> if the batch is empty
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Gets the id at the index.
+	 *
+	 * @param index
+	 * @return the id
+	 */
+	public long getID(int index) {
+		return ids[index];
+	}
+
+	/**
+	 * Gets the <code>Activator</code> at the index.
+	 *
+	 * @param index
+	 * @return the <code>Activator</code>
+	 */
+	public IActivator getActivator(int index) {
+		return activators[index];
+	}
+}
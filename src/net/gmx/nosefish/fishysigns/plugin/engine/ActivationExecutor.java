@@ -0,0 +1,235 @@
+package net.gmx.nosefish.fishysigns.plugin.engine;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import net.gmx.nosefish.fishysigns.Log;
+import net.gmx.nosefish.fishysigns.watcher.activator.IActivatable;
+import net.gmx.nosefish.fishysigns.watcher.activator.IActivator;
+
+/**
+ * Runs activations on a fixed number of single-threaded lanes.
+ * Each <code>Activatable</code> id is hashed to one lane, so all
+ * activations of the same <code>Activatable</code> run in the order
+ * in which they were submitted, one after the other, and never
+ * contend for the <code>Activatable</code>'s lock. Different
+ * <code>Activatables</code> are spread over all lanes and run in parallel.
+ */
+public final class ActivationExecutor {
+	private final ExecutorService[] lanes;
+
+	/**
+	 * Constructor
+	 *
+	 * @param laneCount
+	 *     the number of lanes (threads)
+	 */
+	public ActivationExecutor(int laneCount) {
+		if (laneCount < 1) {
+			throw new IllegalArgumentException("ActivationExecutor needs at least one lane");
+		}
+		this.lanes = new ExecutorService[laneCount];
+		for (int lane = 0; lane < laneCount; ++lane) {
+			lanes[lane] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+					new LinkedBlockingQueue<Runnable>(),
+					new LaneThreadFactory(lane));
+		}
+	}
+
+	/**
+	 * @return the number of lanes
+	 */
+	public int getLaneCount() {
+		return lanes.length;
+	}
+
+	/**
+	 * Gets the lane that runs all activations for the id.
+	 *
+	 * @param id
+	 *     the <code>Activatable</code> id
+	 * @return the lane index
+	 */
+	public int laneOf(long id) {
+		long h = id * 0x9E3779B97F4A7C15L;
+		int hash = (int)(h ^ (h >>> 32));
+		return (hash & 0x7FFFFFFF) % lanes.length;
+	}
+
+	/**
+	 * Activates a single <code>Activatable</code> on its lane.
+	 *
+	 * @param recipient
+	 *     the <code>Activatable</code>
+	 * @param activator
+	 *     the <code>Activator</code> to pass to it
+	 */
+	public void execute(IActivatable recipient, IActivator activator) {
+		submit(laneOf(recipient.getID()), new LaneSlice(
+				new IActivatable[] {recipient},
+				new IActivator[] {activator},
+				1,
+				null));
+	}
+
+	/**
+	 * Activates resolved <code>Activatables</code>. The arrays are
+	 * split up by lane, and every lane receives a single task with
+	 * its share, preserving the order of the arrays.
+	 *
+	 * @param recipients
+	 *     the <code>Activatables</code>
+	 * @param activators
+	 *     the <code>Activator</code> for each <code>Activatable</code>
+	 * @param count
+	 *     the number of valid entries in the arrays
+	 */
+	public void executeAll(IActivatable[] recipients, IActivator[] activators, int count) {
+		executeAll(recipients, activators, count, null);
+	}
+
+	/**
+	 * Like <code>executeAll(IActivatable[], IActivator[], int)</code>, but
+	 * registers every lane task with the barrier, and each
+	 * arrives when it is done.
+	 *
+	 * @param recipients
+	 * @param activators
+	 * @param count
+	 * @param barrier
+	 *     may be <code>null</code>
+	 */
+	void executeAll(IActivatable[] recipients, IActivator[] activators, int count, TickBarrier barrier) {
+		int laneCount = lanes.length;
+		int[] laneOfEntry = new int[count];
+		int[] laneSize = new int[laneCount];
+		for (int i = 0; i < count; ++i) {
+			int lane = laneOf(recipients[i].getID());
+			laneOfEntry[i] = lane;
+			++laneSize[lane];
+		}
+		IActivatable[][] laneRecipients = new IActivatable[laneCount][];
+		IActivator[][] laneActivators = new IActivator[laneCount][];
+		int[] laneFill = new int[laneCount];
+		for (int lane = 0; lane < laneCount; ++lane) {
+			if (laneSize[lane] > 0) {
+				laneRecipients[lane] = new IActivatable[laneSize[lane]];
+				laneActivators[lane] = new IActivator[laneSize[lane]];
+			}
+		}
+		for (int i = 0; i < count; ++i) {
+			int lane = laneOfEntry[i];
+			int pos = laneFill[lane]++;
+			laneRecipients[lane][pos] = recipients[i];
+			laneActivators[lane][pos] = activators[i];
+		}
+		if (barrier != null) {
+			int slices = 0;
+			for (int lane = 0; lane < laneCount; ++lane) {
+				if (laneSize[lane] > 0) {
+					++slices;
+				}
+			}
+			barrier.register(slices);
+		}
+		for (int lane = 0; lane < laneCount; ++lane) {
+			if (laneSize[lane] > 0) {
+				submit(lane, new LaneSlice(laneRecipients[lane], laneActivators[lane], laneSize[lane], barrier));
+			}
+		}
+	}
+
+	/**
+	 * Stops all lanes. Activations that have not started yet are dropped.
+	 * Waits up to one second in total for the running ones.
+	 */
+	public void shutdown() {
+		for (ExecutorService lane : lanes) {
+			lane.shutdown();
+		}
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+		try {
+			for (ExecutorService lane : lanes) {
+				lane.awaitTermination(Math.max(0L, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			Log.get().logWarning("ActivationExecutor was interrupted while waiting for the lanes to shut down!");
+		} finally {
+			for (ExecutorService lane : lanes) {
+				lane.shutdownNow();
+			}
+		}
+	}
+
+	private void submit(int lane, LaneSlice slice) {
+		try {
+			lanes[lane].execute(slice);
+		} catch (RejectedExecutionException e) {
+			// shutting down, nobody cares about this activation anymore
+			slice.arrive();
+		}
+	}
+
+	/**
+	 * The share of a batch that runs on one lane.
+	 */
+	private static final class LaneSlice implements Runnable {
+		private final IActivatable[] recipients;
+		private final IActivator[] activators;
+		private final int count;
+		private final TickBarrier barrier;
+
+		LaneSlice(IActivatable[] recipients, IActivator[] activators, int count, TickBarrier barrier) {
+			this.recipients = recipients;
+			this.activators = activators;
+			this.count = count;
+			this.barrier = barrier;
+		}
+
+		@Override
+		public void run() {
+			try {
+				for (int i = 0; i < count; ++i) {
+					try {
+						recipients[i].activate(activators[i]);
+					} catch (RuntimeException e) {
+						Log.get().logStacktrace("ActivationExecutor: exception while activating "
+								+ recipients[i].getClass().getSimpleName(), e);
+					}
+				}
+			} finally {
+				arrive();
+			}
+		}
+
+		void arrive() {
+			if (barrier != null) {
+				barrier.arrive();
+			}
+		}
+	}
+
+	/**
+	 * Names the lane threads and makes them daemons, so that a lane
+	 * can never keep the server from shutting down.
+	 */
+	private static final class LaneThreadFactory implements ThreadFactory {
+		private final int lane;
+
+		LaneThreadFactory(int lane) {
+			this.lane = lane;
+		}
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "FishySigns-Activation-" + lane);
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
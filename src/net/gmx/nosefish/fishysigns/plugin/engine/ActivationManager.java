@@ -1,10 +1,9 @@
 package net.gmx.nosefish.fishysigns.plugin.engine;
 
-import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.atomic.AtomicLong;
 
+import net.gmx.nosefish.fishysigns.datastructures.ConcurrentLongMap;
 import net.gmx.nosefish.fishysigns.plugin.FishySigns;
 import net.gmx.nosefish.fishysigns.watcher.IFishyWatcher;
 import net.gmx.nosefish.fishysigns.watcher.activator.IActivatable;
@@ -17,11 +16,21 @@ import net.gmx.nosefish.fishysigns.watcher.activator.IActivator;
  * <p> 
  * No other class should retain a strong reference to an <code>Activatable</code>.
  * They should always be represented by their unique IDs instead.
+ * <p>
+ * Lookups by id do not lock and do not allocate, so activating
+ * is cheap even when the watchers do it thousands of times per tick.
+ * <p>
+ * Activations are asynchronous. They run on the lanes of an
+ * <code>ActivationExecutor</code>: all activations of one
+ * <code>Activatable</code> run in order on the same lane, while different
+ * <code>Activatables</code> are activated in parallel.
  * 
  * @author Stefan Steinheimer (nosefish)
  *
  */
 public final class ActivationManager implements IFishyWatcher{
+	// used until the plugin sets the configured lane count
+	private static final int DEFAULT_LANE_COUNT = 4;
 	// singleton
 	private static final ActivationManager instance = new ActivationManager();
 	static{
@@ -29,19 +38,18 @@ public final class ActivationManager implements IFishyWatcher{
 	}
 
 	private volatile boolean enabled = false;
+	private volatile ActivationExecutor executor = null;
+	private volatile int laneCount = DEFAULT_LANE_COUNT;
 	// instance
-	private final ReentrantReadWriteLock indexLock = new ReentrantReadWriteLock();
-	private final Lock indexReadLock = indexLock.readLock();
-	private final Lock indexWriteLock = indexLock.writeLock();
-	private long idCounter; // guarded by indexLock
-	private Map<Long, IActivatable> idIndex; // guarded by indexLock
+	private final AtomicLong idCounter;
+	private final ConcurrentLongMap<IActivatable> idIndex;
 	
 	/**
 	 * Private constructor for singleton
 	 */
 	private ActivationManager() {
-		this.idCounter = 0L;
-		this.idIndex = new HashMap<Long, IActivatable>(64, 0.8F);
+		this.idCounter = new AtomicLong(0L);
+		this.idIndex = new ConcurrentLongMap<IActivatable>(64);
 	}
 	
 	/**
@@ -65,15 +73,9 @@ public final class ActivationManager implements IFishyWatcher{
 		if (! enabled) {
 			return;
 		}
-		long id;
-		try {
-			indexWriteLock.lock();
-			id = ++idCounter;
-			idIndex.put(id, activatable);
-			activatable.setID(id);
-		} finally {
-			indexWriteLock.unlock();
-		}
+		long id = idCounter.incrementAndGet();
+		activatable.setID(id);
+		idIndex.put(id, activatable);
 		activatable.initialize();
 	}
 	
@@ -88,34 +90,24 @@ public final class ActivationManager implements IFishyWatcher{
 		if (! enabled) {
 			return false;
 		}
-		boolean result = false; 
-		indexReadLock.lock();
-		try {
-			result = idIndex.containsKey(id);
-		} finally {
-			indexReadLock.unlock();
-		}
-		return result;
+		return idIndex.containsKey(id);
 	}
 	
-
-	
-		public void remove(Long id) {
-			if (! enabled) {
-				return;
-			}
-			IActivatable toRemove = null;
-			indexWriteLock.lock();
-			try {
-				toRemove = idIndex.get(id);
-				idIndex.remove(id);
-			} finally {
-				indexWriteLock.unlock();
-			}
-			if (toRemove != null) {
-				toRemove.remove();
-			}
+	/**
+	 * Removes the <code>Activatable</code> with the id from the index
+	 * and calls its <code>remove</code> method.
+	 * 
+	 * @param id
+	 */
+	public void remove(Long id) {
+		if (! enabled || id == null) {
+			return;
+		}
+		IActivatable toRemove = idIndex.remove(id);
+		if (toRemove != null) {
+			toRemove.remove();
 		}
+	}
 	
 	/**
 	 * Activates all registered <code>Activatables</code> represented by the ids in the list
@@ -128,11 +120,28 @@ public final class ActivationManager implements IFishyWatcher{
 		if (! enabled) {
 			return;
 		}
+		ActivationBatch batch = new ActivationBatch(toActivate.length);
 		for (Long id : toActivate) {
-			activate(id, activator);
+			batch.add(id, activator);
 		}
+		activateAll(batch);
 	}
 	
+	/**
+	 * Activates all registered <code>Activatables</code> represented by the ids in the array
+	 * with the same <code>Activator</code>.
+	 * 
+	 * @param activator the <code>Activator</code> to send to the <code>Activatables</code>
+	 * @param toActivate ids to activate
+	 */
+	public void activateAll(IActivator activator, long[] toActivate) {
+		if (! enabled) {
+			return;
+		}
+		ActivationBatch batch = new ActivationBatch(toActivate.length);
+		batch.addAll(activator, toActivate);
+		activateAll(batch);
+	}
 	
 	/**
 	 * Activates all registered <code>Activatables</code> represented by the ids in the list
@@ -144,12 +153,55 @@ public final class ActivationManager implements IFishyWatcher{
 		if (! enabled) {
 			return;
 		}
+		ActivationBatch batch = new ActivationBatch(toActivate.size());
 		for (Map.Entry<Long, ? extends IActivator> entry : toActivate.entrySet()) {
-			activate(entry.getKey(), entry.getValue());
+			batch.add(entry.getKey(), entry.getValue());
+		}
+		activateAll(batch);
+	}
+	
+	/**
+	 * Activates all registered <code>Activatables</code> in the batch with
+	 * their associated <code>Activator</code>.
+	 * <p>
+	 * All ids are resolved in one pass, then the batch is split up by
+	 * lane and every lane receives its share as a single task.
+	 * 
+	 * @param batch the id/<code>Activator</code> pairs to process
+	 */
+	public void activateAll(ActivationBatch batch) {
+		activateAll(batch, null);
+	}
+	
+	/**
+	 * Like <code>activateAll(ActivationBatch)</code>, but the lane
+	 * tasks are registered with the barrier.
+	 * 
+	 * @param batch the id/<code>Activator</code> pairs to process
+	 * @param barrier may be <code>null</code>
+	 */
+	void activateAll(ActivationBatch batch, TickBarrier barrier) {
+		ActivationExecutor exec = executor;
+		if (! enabled || exec == null || batch.isEmpty()) {
+			return;
+		}
+		int size = batch.size();
+		IActivatable[] recipients = new IActivatable[size];
+		IActivator[] activators = new IActivator[size];
+		int found = 0;
+		for (int i = 0; i < size; ++i) {
+			IActivatable recipient = idIndex.get(batch.getID(i));
+			if (recipient != null) {
+				recipients[found] = recipient;
+				activators[found] = batch.getActivator(i);
+				++found;
+			}
+		}
+		if (found > 0) {
+			exec.executeAll(recipients, activators, found, barrier);
 		}
 	}
 	
-
 	/**
 	 * Activates the <code>Activatable</code> represented by <code>id</code>
 	 * with the <code>Activator</code>.
@@ -158,35 +210,51 @@ public final class ActivationManager implements IFishyWatcher{
 	 * @param activator
 	 */
 	public void activate(long id, IActivator activator) {
-		if (! enabled) {
+		ActivationExecutor exec = executor;
+		if (! enabled || exec == null) {
 			return;
 		}
-		IActivatable toActivate = null;
-		indexReadLock.lock();
-		try {
-			toActivate = idIndex.get(id);
-		}finally {
-			indexReadLock.unlock();
-		}
+		IActivatable toActivate = idIndex.get(id);
 		if (toActivate != null) {
-			toActivate.activate(activator);
+			exec.execute(toActivate, activator);
 		}
 	}
 
+	/**
+	 * Sets the number of threads that run activations.
+	 * Takes effect when the manager is enabled the next time.
+	 * 
+	 * @param laneCount
+	 *     the number of lanes, at least 1
+	 */
+	public void setLaneCount(int laneCount) {
+		this.laneCount = Math.max(1, laneCount);
+	}
+
 	@Override
-	public void enable() {
+	public synchronized void enable() {
+		// The plugin may call this more than once. Loading this class
+		// already enables it, before the plugin has set the lane count.
+		ActivationExecutor exec = executor;
+		if (exec != null && exec.getLaneCount() != laneCount) {
+			executor = null;
+			exec.shutdown();
+		}
+		if (executor == null) {
+			executor = new ActivationExecutor(laneCount);
+		}
 		enabled = true;
 	}
 
 	@Override
-	public void disable() {
+	public synchronized void disable() {
 		enabled = false;
-		indexWriteLock.lock();
-		try {
-			idCounter = 0L;
-			idIndex.clear();
-		} finally {
-			indexWriteLock.unlock();
+		ActivationExecutor exec = executor;
+		executor = null;
+		if (exec != null) {
+			exec.shutdown();
 		}
+		idIndex.clear();
+		idCounter.set(0L);
 	}
 }
@@ -9,6 +9,7 @@ import net.canarymod.hook.player.SignChangeHook;
 import net.canarymod.hook.system.ServerTickHook;
 import net.canarymod.plugin.PluginListener;
 import net.canarymod.plugin.Priority;
+import net.gmx.nosefish.fishysigns.exception.DisabledException;
 import net.gmx.nosefish.fishysigns.signs.FishySign;
 import net.gmx.nosefish.fishysigns.task.FishyTaskManager;
 
@@ -35,5 +36,10 @@ public class FishyEngineListener implements PluginListener {
 	public void tick(ServerTickHook hook) {
 		ServerTicker.getInstance().tick();
 		FishyTaskManager.getInstance().tick();
+		try {
+			TickPipeline.getInstance().tick(ServerTicker.getInstance().getTickCount());
+		} catch (DisabledException e) {
+			// shutting down, nothing more to write
+		}
 	}
 }
@@ -3,15 +3,15 @@ package net.gmx.nosefish.fishysigns.plugin.engine;
 import java.io.File;
 import java.io.FilenameFilter;
 import java.io.IOException;
-import java.lang.reflect.Constructor;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Modifier;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.util.Enumeration;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
@@ -25,9 +25,15 @@ import net.gmx.nosefish.fishysigns.signs.FishySign;
 public final class FishySignClassLoader {
 	private static FishySignClassLoader instance = new FishySignClassLoader();
 	private static String FISHYSIGNDIR = "plugins/fishysigns";
+	private static final MethodType FACTORY_TYPE = MethodType.methodType(FishySign.class, UnloadedSign.class);
 	// known FishySign classes
 	private Map<SignRegEx, Class<? extends FishySign>> signTypes = 
 			new ConcurrentHashMap<SignRegEx, Class<? extends FishySign>>();
+	// constructors of the known classes, type (UnloadedSign)FishySign
+	private Map<Class<? extends FishySign>, MethodHandle> factories =
+			new ConcurrentHashMap<Class<? extends FishySign>, MethodHandle>();
+	// rebuilt after loading, used by getFishyClass
+	private volatile SignDispatchIndex dispatchIndex = new SignDispatchIndex(signTypes);
 
 	public static FishySignClassLoader getInstance() {
 		return instance;
@@ -40,6 +46,8 @@ public final class FishySignClassLoader {
 	// The actual loading happens in loadAllFishySignClassesFromJar.
 	public void loadAllFishySignClasses() {
 		signTypes.clear();
+		factories.clear();
+		dispatchIndex = new SignDispatchIndex(signTypes);
 		File signDir = new File(FISHYSIGNDIR);
 		if (!signDir.exists()) {
 			Log.get().logSevere(
@@ -62,6 +70,7 @@ public final class FishySignClassLoader {
 		for (File jarFile : signDir.listFiles(onlyJarFiles)) {
 			loadAllFishySignClassesFromJar(jarFile.getAbsolutePath());
 		}
+		dispatchIndex = new SignDispatchIndex(signTypes);
 	}
 	
 	/**
@@ -89,9 +98,13 @@ public final class FishySignClassLoader {
 					if (FishySign.class.isAssignableFrom(loadedClass)) {
 						SignRegEx regEx = getIdentifierRegEx(loadedClass);
 						if (regEx != null) {
-							signTypes.put(regEx,
-									loadedClass.asSubclass(FishySign.class));
-							Log.get().logInfo("Loaded FishySign class " + className);
+							Class<? extends FishySign> signClass = loadedClass.asSubclass(FishySign.class);
+							MethodHandle factory = getFactory(signClass);
+							if (factory != null) {
+								factories.put(signClass, factory);
+								signTypes.put(regEx, signClass);
+								Log.get().logInfo("Loaded FishySign class " + className);
+							}
 						} else if (! Modifier.isAbstract(loadedClass.getModifiers())) {
 							Log.get().logWarning(
 									"Could not load FishySign class " + className
@@ -109,6 +122,31 @@ public final class FishySignClassLoader {
 		}
 	}
 
+	/**
+	 * Looks up the <code>(UnloadedSign)</code> constructor of a sign class.
+	 * @param signClass the class to process.
+	 * @return a <code>MethodHandle</code> of type <code>(UnloadedSign)FishySign</code>,
+	 *         or null if the class cannot be instantiated
+	 */
+	private MethodHandle getFactory(Class<? extends FishySign> signClass) {
+		if (Modifier.isAbstract(signClass.getModifiers())) {
+			// base class, may have inherited the identifier of its subclasses
+			return null;
+		}
+		try {
+			MethodHandle constructor = MethodHandles.publicLookup().findConstructor(
+					signClass, MethodType.methodType(void.class, UnloadedSign.class));
+			return constructor.asType(FACTORY_TYPE);
+		} catch (NoSuchMethodException e) {
+			Log.get().logWarning("Could not load FishySign class " + signClass.getName()
+					+ " - no public constructor that takes an UnloadedSign.");
+		} catch (IllegalAccessException e) {
+			Log.get().logWarning("Could not load FishySign class " + signClass.getName()
+					+ " - constructor is not accessible.");
+		}
+		return null;
+	}
+
 	/**
 	 * Gets the set of regex <code>Pattern</code>s that identify this sign class form the annotated static field.
 	 * @param cls the class to process.
@@ -141,14 +179,7 @@ public final class FishySignClassLoader {
 	 * @return the class that has a matching <code>@FishySignIdentifier</code>
 	 */
 	public Class<? extends FishySign> getFishyClass(String[] signText) {
-		if (signTypes != null) {
-			for (Entry<SignRegEx, Class<? extends FishySign>> entry : signTypes.entrySet()) {
-				if (entry.getKey().matches(signText)) {
-					return entry.getValue();
-				}
-			}
-		}
-		return null;
+		return dispatchIndex.lookup(signText);
 	}
 	
 	/**
@@ -161,22 +192,19 @@ public final class FishySignClassLoader {
 		// find matching class
 		Class<? extends FishySign> signClass = this.getFishyClass(sign.getText());
 		if (signClass != null) {
+			MethodHandle factory = factories.get(signClass);
+			if (factory == null) {
+				// unloaded in the meantime
+				return null;
+			}
 			try {
 				// instantiate
-				Constructor<? extends FishySign> signConstructor = signClass.getConstructor(UnloadedSign.class); 
-				fishySign = signConstructor.newInstance(sign);
-			} catch (InstantiationException e) {
-				Log.get().logStacktrace("Failed to instantiate FishySign", e);
-			} catch (IllegalAccessException e) {
-				Log.get().logStacktrace("Failed to instantiate FishySign", e);
-			} catch (IllegalArgumentException e) {
-				Log.get().logStacktrace("Failed to instantiate FishySign", e);
-			} catch (SecurityException e) {
-				Log.get().logStacktrace("Failed to instantiate FishySign", e);
-			} catch (InvocationTargetException e) {
-				Log.get().logStacktrace("Failed to instantiate FishySign", e);
-			} catch (NoSuchMethodException e) {
-				Log.get().logStacktrace("Failed to instantiate FishySign", e);
+				fishySign = (FishySign) factory.invokeExact(sign);
+			} catch (Error e) {
+				throw e;
+			} catch (Throwable t) {
+				// thrown by the constructor
+				Log.get().logStacktrace("Failed to instantiate FishySign", t);
 			}
 		}
 		return fishySign;
@@ -1,9 +1,10 @@
 package net.gmx.nosefish.fishysigns.plugin.engine;
 
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.Iterator;
 
 import net.gmx.nosefish.fishylib.worldmath.FishyChunk;
 import net.canarymod.api.world.Chunk;
@@ -13,32 +14,72 @@ import net.canarymod.api.world.blocks.Sign;
 //import net.gmx.nosefish.fishysigns.Log;
 import net.gmx.nosefish.fishysigns.task.FishyTask;
 
+/**
+ * Finds the signs in newly loaded chunks and hands them to
+ * the <code>SignLoadQueue</code>.
+ * <p>
+ * Runs in the server thread, a few chunks per tick, and repeats
+ * every tick until all chunks have been scanned and all signs
+ * have been enqueued. If the queue is full, the remaining
+ * signs are kept and offered again on the next tick.
+ */
 public class FishySignFinderTask extends FishyTask{
-	private final Collection<FishyChunk> chunks;
-	
+	private static final int MAX_CHUNKS_PER_TICK = 16;
+
+	private final Iterator<FishyChunk> chunks;
+	// found, but not yet accepted by the queue
+	private final ArrayDeque<UnloadedSign> pending = new ArrayDeque<UnloadedSign>();
+
 	public FishySignFinderTask(Collection<FishyChunk> chunks) {
-		this.chunks = chunks;
+		this.chunks = new ArrayList<FishyChunk>(chunks).iterator();
+		this.setTickRepeatDelay(0);
 	}
 
 	@Override
 	public void doStuff() {
-		List<UnloadedSign> signsToLoad= new LinkedList<UnloadedSign>();
-		for (FishyChunk fishyChunk : chunks) {
-			World world = fishyChunk.getWorld().getWorldIfLoaded();
-			Chunk chunk = world.getChunk(fishyChunk.getChunkX(), fishyChunk.getChunkZ());
-			if (chunk != null) {
-				for (TileEntity tileEntity : chunk.getTileEntityMap().values()) {
-					if (tileEntity instanceof Sign) {
-						signsToLoad.add(new UnloadedSign((Sign)tileEntity));
-					}
-				}
-			} else {
-				//Log.get().logWarning(this.getClass().getName() + " - Chunk not loaded: " + fishyChunk);
+		SignLoadQueue loadQueue = SignLoadQueue.getInstance();
+		int scanned = 0;
+		while (offerPending(loadQueue) && scanned < MAX_CHUNKS_PER_TICK && chunks.hasNext()) {
+			scanChunk(chunks.next());
+			++scanned;
+		}
+		loadQueue.startLoaders();
+		if (pending.isEmpty() && ! chunks.hasNext()) {
+			this.stopRepeating();
+		}
+	}
+
+	/**
+	 * Offers the pending signs to the queue.
+	 *
+	 * @param loadQueue
+	 * @return <code>true</code> if all were accepted
+	 */
+	private boolean offerPending(SignLoadQueue loadQueue) {
+		while (! pending.isEmpty()) {
+			if (! loadQueue.offer(pending.peekFirst())) {
+				return false;
 			}
+			pending.pollFirst();
 		}
-		if (! signsToLoad.isEmpty()) {
-			this.setNextTask(new FishySignLoaderTask(signsToLoad));
+		return true;
+	}
+
+	private void scanChunk(FishyChunk fishyChunk) {
+		World world = fishyChunk.getWorld().getWorldIfLoaded();
+		if (world == null) {
+			return;
+		}
+		Chunk chunk = world.getChunk(fishyChunk.getChunkX(), fishyChunk.getChunkZ());
+		if (chunk != null) {
+			for (TileEntity tileEntity : chunk.getTileEntityMap().values()) {
+				if (tileEntity instanceof Sign) {
+					pending.addLast(new UnloadedSign((Sign)tileEntity));
+				}
+			}
+		} else {
+			//Log.get().logWarning(this.getClass().getName() + " - Chunk not loaded: " + fishyChunk);
 		}
 	}
-	
+
 }
@@ -1,7 +1,6 @@
 package net.gmx.nosefish.fishysigns.plugin.engine;
 
-import java.util.List;
-
+import net.gmx.nosefish.fishysigns.Log;
 import net.gmx.nosefish.fishysigns.signs.FishySign;
 import net.gmx.nosefish.fishysigns.task.FishyTask;
 
@@ -10,14 +9,17 @@ import net.gmx.nosefish.fishysigns.task.FishyTask;
  * Finding the correct class for a sign and loading it involves
  * a lot of reflection and pattern matching,
  * so we do that outside the server thread.
+ * <p>
+ * Drains the <code>SignLoadQueue</code> until it is empty.
+ * Several loaders may run in parallel.
  * 
  * @author Stefan Steinheimer
  *
  */
 public class FishySignLoaderTask extends FishyTask {
-	private List<UnloadedSign> signsToLoad;
+	private final SignLoadQueue signsToLoad;
 	
-	public FishySignLoaderTask(List<UnloadedSign> signsToLoad) {
+	public FishySignLoaderTask(SignLoadQueue signsToLoad) {
 		super();
 		this.signsToLoad = signsToLoad;
 		this.setThreadsafe_IPromiseThatThisDoesNotTouchTheWorld();
@@ -25,9 +27,17 @@ public class FishySignLoaderTask extends FishyTask {
 
 	@Override
 	public void doStuff() {
-		for (UnloadedSign sign : signsToLoad) {
-			FishySign.loadAndRegister(sign);
-		}
+		do {
+			UnloadedSign sign;
+			while ((sign = signsToLoad.poll()) != null) {
+				try {
+					FishySign.loadAndRegister(sign);
+				} catch (RuntimeException e) {
+					// don't let one broken sign stop the loader
+					Log.get().logStacktrace("FishySignLoaderTask: exception while loading sign at " + sign.getLocation(), e);
+				}
+			}
+		} while (! signsToLoad.loaderFinished());
 	}
 
 }
@@ -1,17 +1,33 @@
 package net.gmx.nosefish.fishysigns.plugin.engine;
 
 
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
 import net.canarymod.plugin.PluginListener;
 import net.gmx.nosefish.fishysigns.exception.DisabledException;
 
 /**
+ * Counts server ticks and lets other threads wait for the next one.
+ * <p>
+ * The tick count and the shutdown flag share a single atomic
+ * <code>long</code>: the count in the upper 63 bits, the flag in the
+ * lowest bit. Reading the tick count is one volatile load and never
+ * blocks. Threads in <code>awaitTick</code> are parked and unparked
+ * by <code>tick</code> and <code>shutdown</code>; there is no monitor.
+ * 
  * @author Stefan Steinheimer (nosefish)
  *
  */
 public class ServerTicker implements PluginListener {
+	private static final long SHUTDOWN_FLAG = 1L;
+	private static final long ONE_TICK = 2L;
+	
 	private static volatile ServerTicker instance = new ServerTicker();
-	private static volatile long tickCount = 0L;
-	private volatile boolean shutdown = true;
+	// (tickCount << 1) | shutdown flag
+	private static final AtomicLong state = new AtomicLong(SHUTDOWN_FLAG);
+	private final ConcurrentLinkedQueue<Thread> waiters = new ConcurrentLinkedQueue<Thread>();
 	
 	private ServerTicker() {
 
@@ -28,22 +44,37 @@ public class ServerTicker implements PluginListener {
 	 * @throws DisabledException if the <code>ServerTicker</code> is not running
 	 */
 	public void awaitTick() throws DisabledException{
-		if (shutdown) {
+		long lastState = state.get();
+		if (isShutdown(lastState)) {
 			throw new DisabledException("FishySigns has been disabled, the ServerTicker was shut down.");
 		}
-		long lastTick = tickCount;
+		long lastTick = lastState >>> 1;
+		Thread self = Thread.currentThread();
+		// enqueue before checking, so a tick in between can't be missed
+		waiters.offer(self);
 		try {
-			synchronized(instance) {
-				while (tickCount == lastTick) {
-					instance.wait();
-					if (shutdown) {
-						// notifyAll might have been called by shutdown() instead of tick().
-						throw new DisabledException("FishySigns has been disabled and the ServerTicker was shut down.");
-					}
+			while (true) {
+				long current = state.get();
+				if (isShutdown(current)) {
+					// shutdown() instead of tick() might have woken us up.
+					throw new DisabledException("FishySigns has been disabled and the ServerTicker was shut down.");
+				}
+				if ((current >>> 1) != lastTick) {
+					return;
+				}
+				LockSupport.park(this);
+				if (Thread.interrupted()) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+				if (! waiters.contains(self)) {
+					// taken by the wakeWaiters of a tick we had already seen
+					waiters.offer(self);
 				}
 			}
-		} catch (InterruptedException e) {
-			Thread.currentThread().interrupt();
+		} finally {
+			// usually already removed by tick() or shutdown()
+			waiters.remove(self);
 		}
 	}
 
@@ -54,12 +85,11 @@ public class ServerTicker implements PluginListener {
 	 * @throws DisabledException if the <code>ServerTicker</code> is not running
 	 */
 	public long getTickCount() throws DisabledException {
-		synchronized(instance) {
-			if (shutdown) {
-				throw new DisabledException("FishySigns has been disabled and the ServerTicker was shut down.");
-			}
-			return tickCount;
+		long current = state.get();
+		if (isShutdown(current)) {
+			throw new DisabledException("FishySigns has been disabled and the ServerTicker was shut down.");
 		}
+		return current >>> 1;
 	}
 	
 	/**
@@ -67,10 +97,11 @@ public class ServerTicker implements PluginListener {
 	 * Called by the plugin, do not call yourself!
 	 */
 	public void shutdown() {
-		this.shutdown = true;
-		synchronized(instance) {
-			instance.notifyAll();
-		}
+		long current;
+		do {
+			current = state.get();
+		} while (! state.compareAndSet(current, current | SHUTDOWN_FLAG));
+		wakeWaiters();
 	}
 	
 	/**
@@ -78,18 +109,34 @@ public class ServerTicker implements PluginListener {
 	 * Called by the plugin, do not call yourself!
 	 */
 	public void start() {
-		this.shutdown = false;
+		long current;
+		do {
+			current = state.get();
+		} while (! state.compareAndSet(current, current & ~SHUTDOWN_FLAG));
 	}
 	
 	/**
 	 * Called by the FishyEngineListener when the server ticks. Do not call yourself!
 	 */
 	public void tick() {
-		synchronized (instance) {
-			++tickCount;
-			instance.notifyAll();
-		}
+		state.addAndGet(ONE_TICK);
+		wakeWaiters();
+	}
+	
+	private static boolean isShutdown(long state) {
+		return (state & SHUTDOWN_FLAG) != 0L;
 	}
 	
+	/**
+	 * Unparks every thread that is waiting in <code>awaitTick</code>.
+	 * Threads that enqueue themselves while this runs either see the
+	 * new state before parking or are woken on the next tick.
+	 */
+	private void wakeWaiters() {
+		Thread waiter;
+		while ((waiter = waiters.poll()) != null) {
+			LockSupport.unpark(waiter);
+		}
+	}
 
 }
@@ -0,0 +1,342 @@
+package net.gmx.nosefish.fishysigns.plugin.engine;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+import net.gmx.nosefish.fishysigns.signs.FishySign;
+
+/**
+ * Immutable lookup structure that finds the <code>FishySign</code> class
+ * for a sign text without trying every <code>SignRegEx</code>.
+ * <p>
+ * When the index is built, each <code>SignRegEx</code> is examined for
+ * a line whose pattern is a plain literal (or an alternation of literals),
+ * e.g. <code>\[MC1000\]</code>. Such sign types are put into a hash map
+ * keyed by that literal. Sign types without an exact key are bucketed by
+ * the longest literal prefix of one of their lines instead. Only the
+ * remaining ones, whose patterns start with a wildcard or use flags,
+ * are tried one by one.
+ * <p>
+ * A hash hit only selects candidates; every candidate is still verified
+ * with <code>SignRegEx.matches</code>.
+ */
+final class SignDispatchIndex {
+	private static final int LINES = 4;
+	private static final String METACHARS = ".[]{}()*+?|^$\\";
+
+	// exactKeys.get(line).get(text) -> candidates
+	private final List<Map<String, List<IndexEntry>>> exactKeys;
+	// prefixKeys.get(line).get(prefix) -> candidates
+	private final List<Map<String, List<IndexEntry>>> prefixKeys;
+	// distinct prefix lengths per line, longest first
+	private final int[][] prefixLengths;
+	private final IndexEntry[] fallback;
+
+	/**
+	 * Builds the index.
+	 *
+	 * @param signTypes
+	 *     the known sign types
+	 */
+	SignDispatchIndex(Map<SignRegEx, Class<? extends FishySign>> signTypes) {
+		exactKeys = new ArrayList<Map<String, List<IndexEntry>>>(LINES);
+		prefixKeys = new ArrayList<Map<String, List<IndexEntry>>>(LINES);
+		List<TreeSet<Integer>> lengths = new ArrayList<TreeSet<Integer>>(LINES);
+		for (int line = 0; line < LINES; ++line) {
+			exactKeys.add(new HashMap<String, List<IndexEntry>>());
+			prefixKeys.add(new HashMap<String, List<IndexEntry>>());
+			lengths.add(new TreeSet<Integer>());
+		}
+		List<IndexEntry> unindexed = new ArrayList<IndexEntry>();
+		for (Entry<SignRegEx, Class<? extends FishySign>> signType : signTypes.entrySet()) {
+			IndexEntry entry = new IndexEntry(signType.getKey(), signType.getValue());
+			if (addExact(entry)) {
+				continue;
+			}
+			if (addPrefix(entry, lengths)) {
+				continue;
+			}
+			unindexed.add(entry);
+		}
+		prefixLengths = new int[LINES][];
+		for (int line = 0; line < LINES; ++line) {
+			TreeSet<Integer> lineLengths = lengths.get(line);
+			prefixLengths[line] = new int[lineLengths.size()];
+			int i = 0;
+			for (Integer length : lineLengths.descendingSet()) {
+				prefixLengths[line][i++] = length;
+			}
+		}
+		fallback = unindexed.toArray(new IndexEntry[unindexed.size()]);
+	}
+
+	/**
+	 * Finds the sign class that matches the sign text.
+	 *
+	 * @param signText
+	 *     the four lines of the sign
+	 * @return the matching class, or <code>null</code> if there is none
+	 */
+	Class<? extends FishySign> lookup(String[] signText) {
+		for (int line = 0; line < LINES; ++line) {
+			Map<String, List<IndexEntry>> lineKeys = exactKeys.get(line);
+			if (lineKeys.isEmpty()) {
+				continue;
+			}
+			Class<? extends FishySign> found = firstMatch(lineKeys.get(signText[line]), signText);
+			if (found != null) {
+				return found;
+			}
+		}
+		for (int line = 0; line < LINES; ++line) {
+			String text = signText[line];
+			for (int length : prefixLengths[line]) {
+				if (text.length() < length) {
+					continue;
+				}
+				Class<? extends FishySign> found =
+						firstMatch(prefixKeys.get(line).get(text.substring(0, length)), signText);
+				if (found != null) {
+					return found;
+				}
+			}
+		}
+		for (IndexEntry entry : fallback) {
+			if (entry.regEx.matches(signText)) {
+				return entry.signClass;
+			}
+		}
+		return null;
+	}
+
+	private static Class<? extends FishySign> firstMatch(List<IndexEntry> candidates, String[] signText) {
+		if (candidates == null) {
+			return null;
+		}
+		for (IndexEntry entry : candidates) {
+			if (entry.regEx.matches(signText)) {
+				return entry.signClass;
+			}
+		}
+		return null;
+	}
+
+	private boolean addExact(IndexEntry entry) {
+		for (int line = 0; line < LINES; ++line) {
+			List<String> keys = exactLiterals(entry.regEx.getPattern(line));
+			if (keys == null) {
+				continue;
+			}
+			Map<String, List<IndexEntry>> lineKeys = exactKeys.get(line);
+			for (String key : keys) {
+				bucket(lineKeys, key).add(entry);
+			}
+			return true;
+		}
+		return false;
+	}
+
+	private boolean addPrefix(IndexEntry entry, List<TreeSet<Integer>> lengths) {
+		int bestLine = -1;
+		String bestPrefix = "";
+		for (int line = 0; line < LINES; ++line) {
+			String prefix = literalPrefix(entry.regEx.getPattern(line));
+			if (prefix.length() > bestPrefix.length()) {
+				bestLine = line;
+				bestPrefix = prefix;
+			}
+		}
+		if (bestLine < 0) {
+			return false;
+		}
+		bucket(prefixKeys.get(bestLine), bestPrefix).add(entry);
+		lengths.get(bestLine).add(bestPrefix.length());
+		return true;
+	}
+
+	private static List<IndexEntry> bucket(Map<String, List<IndexEntry>> map, String key) {
+		List<IndexEntry> list = map.get(key);
+		if (list == null) {
+			list = new ArrayList<IndexEntry>(1);
+			map.put(key, list);
+		}
+		return list;
+	}
+
+	/**
+	 * Gets the strings a pattern matches if it consists only of
+	 * literals separated by top-level <code>|</code>.
+	 *
+	 * @param pattern
+	 * @return the literals, or <code>null</code> if the pattern is anything else
+	 */
+	private static List<String> exactLiterals(Pattern pattern) {
+		if (pattern == null || pattern.flags() != 0) {
+			return null;
+		}
+		List<String> alternatives = splitAlternatives(pattern.pattern());
+		if (alternatives == null) {
+			return null;
+		}
+		List<String> literals = new ArrayList<String>(alternatives.size());
+		for (String alternative : alternatives) {
+			String body = stripAnchors(alternative);
+			StringBuilder literal = new StringBuilder();
+			int end = parseLiteral(body, literal);
+			if (end != body.length()) {
+				return null;
+			}
+			literals.add(literal.toString());
+		}
+		return literals;
+	}
+
+	/**
+	 * Gets the literal text every match of the pattern starts with.
+	 *
+	 * @param pattern
+	 * @return the prefix, empty if there is none
+	 */
+	private static String literalPrefix(Pattern pattern) {
+		if (pattern == null || pattern.flags() != 0) {
+			return "";
+		}
+		List<String> alternatives = splitAlternatives(pattern.pattern());
+		if (alternatives == null || alternatives.size() != 1) {
+			return "";
+		}
+		String body = stripAnchors(alternatives.get(0));
+		StringBuilder literal = new StringBuilder();
+		int end = parseLiteral(body, literal);
+		if (end < body.length() && literal.length() > 0 && "*?{+".indexOf(body.charAt(end)) >= 0) {
+			// a quantifier applies to the last literal character
+			literal.setLength(literal.length() - 1);
+		}
+		return literal.toString();
+	}
+
+	/**
+	 * Splits a regex at the <code>|</code> characters that are not
+	 * escaped, quoted, or inside a group or character class.
+	 *
+	 * @param regex
+	 * @return the alternatives, or <code>null</code> if the regex could not be parsed
+	 */
+	private static List<String> splitAlternatives(String regex) {
+		List<String> alternatives = new ArrayList<String>(1);
+		int depth = 0;
+		boolean inClass = false;
+		int start = 0;
+		int i = 0;
+		while (i < regex.length()) {
+			char c = regex.charAt(i);
+			if (c == '\\') {
+				if (regex.startsWith("\\Q", i)) {
+					int quoteEnd = regex.indexOf("\\E", i + 2);
+					i = (quoteEnd < 0) ? regex.length() : quoteEnd + 2;
+				} else {
+					i += 2;
+				}
+				continue;
+			}
+			if (inClass) {
+				if (c == ']') {
+					inClass = false;
+				}
+			} else if (c == '[') {
+				inClass = true;
+			} else if (c == '(') {
+				++depth;
+			} else if (c == ')') {
+				--depth;
+			} else if (c == '|' && depth == 0) {
+				alternatives.add(regex.substring(start, i));
+				start = i + 1;
+			}
+			++i;
+		}
+		if (depth != 0 || inClass) {
+			return null;
+		}
+		alternatives.add(regex.substring(start));
+		return alternatives;
+	}
+
+	private static String stripAnchors(String alternative) {
+		String body = alternative;
+		if (body.startsWith("^")) {
+			body = body.substring(1);
+		}
+		if (body.endsWith("$") && ! isEscaped(body, body.length() - 1)) {
+			body = body.substring(0, body.length() - 1);
+		}
+		return body;
+	}
+
+	private static boolean isEscaped(String regex, int index) {
+		int backslashes = 0;
+		for (int i = index - 1; i >= 0 && regex.charAt(i) == '\\'; --i) {
+			++backslashes;
+		}
+		return (backslashes % 2) == 1;
+	}
+
+	/**
+	 * Reads literal characters from the start of a regex.
+	 *
+	 * @param regex
+	 * @param literal
+	 *     receives the literal characters
+	 * @return the index of the first character that is not part of a literal
+	 */
+	private static int parseLiteral(String regex, StringBuilder literal) {
+		int i = 0;
+		while (i < regex.length()) {
+			char c = regex.charAt(i);
+			if (c == '\\') {
+				if (i + 1 >= regex.length()) {
+					return i;
+				}
+				char escaped = regex.charAt(i + 1);
+				if (escaped == 'Q') {
+					int quoteEnd = regex.indexOf("\\E", i + 2);
+					if (quoteEnd < 0) {
+						literal.append(regex, i + 2, regex.length());
+						return regex.length();
+					}
+					literal.append(regex, i + 2, quoteEnd);
+					i = quoteEnd + 2;
+					continue;
+				}
+				if (Character.isLetterOrDigit(escaped)) {
+					// character class, back reference, boundary...
+					return i;
+				}
+				literal.append(escaped);
+				i += 2;
+				continue;
+			}
+			if (METACHARS.indexOf(c) >= 0) {
+				return i;
+			}
+			literal.append(c);
+			++i;
+		}
+		return i;
+	}
+
+	private static final class IndexEntry {
+		final SignRegEx regEx;
+		final Class<? extends FishySign> signClass;
+
+		IndexEntry(SignRegEx regEx, Class<? extends FishySign> signClass) {
+			this.regEx = regEx;
+			this.signClass = signClass;
+		}
+	}
+}
@@ -0,0 +1,101 @@
+package net.gmx.nosefish.fishysigns.plugin.engine;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded hand-off between the <code>FishySignFinderTask</code>s,
+ * which snapshot signs on the server thread, and the
+ * <code>FishySignLoaderTask</code>s, which load them in parallel
+ * on worker threads.
+ * <p>
+ * Finders call <code>offer</code>. When the queue is full, <code>offer</code>
+ * fails and the finder retries on the next tick, so the server thread is never
+ * blocked and the backlog cannot grow without bound. Loaders are started on
+ * demand, up to <code>MAX_LOADERS</code> at a time, and stop when the
+ * queue runs dry.
+ * <p>
+ * Thread-safe.
+ */
+public final class SignLoadQueue {
+	private static final int CAPACITY = 1024;
+	private static final int MAX_LOADERS =
+			Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+	private static final SignLoadQueue instance = new SignLoadQueue();
+	
+	private final BlockingQueue<UnloadedSign> queue = new ArrayBlockingQueue<UnloadedSign>(CAPACITY);
+	private final AtomicInteger activeLoaders = new AtomicInteger(0);
+	
+	private SignLoadQueue() {
+		// singleton
+	}
+	
+	public static SignLoadQueue getInstance() {
+		return instance;
+	}
+	
+	/**
+	 * Enqueues a sign for loading. Never blocks.
+	 * 
+	 * @param sign
+	 *     the sign snapshot
+	 * @return
+	 *     <code>true</code> if the sign was enqueued,
+	 *     <code>false</code> if the queue is full
+	 */
+	public boolean offer(UnloadedSign sign) {
+		return queue.offer(sign);
+	}
+	
+	/**
+	 * Starts loaders until all queued signs are taken care of
+	 * or <code>MAX_LOADERS</code> are running.
+	 */
+	public void startLoaders() {
+		while (! queue.isEmpty() && tryClaimLoader()) {
+			if (! new FishySignLoaderTask(this).submit()) {
+				// disabled, nobody will load these signs
+				activeLoaders.decrementAndGet();
+				queue.clear();
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Takes the next sign. Called by the loaders.
+	 * 
+	 * @return the next sign, or <code>null</code> if the queue is empty
+	 */
+	UnloadedSign poll() {
+		return queue.poll();
+	}
+	
+	/**
+	 * Called by a loader that has found the queue empty.
+	 * 
+	 * @return
+	 *     <code>true</code> if the loader must stop,
+	 *     <code>false</code> if a sign has arrived in the meantime
+	 *     and the loader must keep going
+	 */
+	boolean loaderFinished() {
+		activeLoaders.decrementAndGet();
+		// a finder may have offered a sign after our last poll
+		// and seen all loader slots taken
+		return queue.isEmpty() || ! tryClaimLoader();
+	}
+	
+	private boolean tryClaimLoader() {
+		while (true) {
+			int active = activeLoaders.get();
+			if (active >= MAX_LOADERS) {
+				return false;
+			}
+			if (activeLoaders.compareAndSet(active, active + 1)) {
+				return true;
+			}
+		}
+	}
+}
@@ -21,6 +21,17 @@ public final class SignRegEx {
 		}
 	}
 	
+	/**
+	 * Gets the pattern for one line of the sign.
+	 * 
+	 * @param line
+	 *     the line number, 0-3
+	 * @return the pattern, or <code>null</code> if the line is not checked
+	 */
+	public Pattern getPattern(int line) {
+		return regEx[line];
+	}
+	
 	public boolean matches(String[] signText) {
 		for (int i = 0; i < 4; i++) {
 			if (regEx[i] == null) {
@@ -0,0 +1,79 @@
+package net.gmx.nosefish.fishysigns.plugin.engine;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Counts the pieces of work that were dispatched on one tick,
+ * so that the <code>TickPipeline</code> can wait for all of them
+ * before it applies their world writes.
+ * <p>
+ * Work is registered before it is handed to another thread and
+ * arrives when it is done. Waiting uses a <code>Condition</code>,
+ * not a monitor, so that virtual threads are not pinned.
+ */
+final class TickBarrier {
+	private final AtomicInteger pending = new AtomicInteger(0);
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition done = lock.newCondition();
+
+	/**
+	 * Registers work that has not been handed off yet.
+	 *
+	 * @param parties
+	 *     the number of pieces of work
+	 */
+	void register(int parties) {
+		pending.addAndGet(parties);
+	}
+
+	/**
+	 * Marks one piece of work as done.
+	 */
+	void arrive() {
+		if (pending.decrementAndGet() == 0) {
+			lock.lock();
+			try {
+				done.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if all registered work is done
+	 */
+	boolean isDone() {
+		return pending.get() == 0;
+	}
+
+	/**
+	 * Waits until all registered work is done, or the timeout has passed.
+	 *
+	 * @param timeout
+	 * @param unit
+	 * @return <code>true</code> if all work is done
+	 * @throws InterruptedException
+	 */
+	boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+		if (isDone()) {
+			return true;
+		}
+		long remaining = unit.toNanos(timeout);
+		lock.lock();
+		try {
+			while (! isDone()) {
+				if (remaining <= 0L) {
+					return false;
+				}
+				remaining = done.awaitNanos(remaining);
+			}
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+}
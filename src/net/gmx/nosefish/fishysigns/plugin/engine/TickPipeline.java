@@ -0,0 +1,198 @@
+package net.gmx.nosefish.fishysigns.plugin.engine;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.gmx.nosefish.fishysigns.Log;
+import net.gmx.nosefish.fishysigns.task.FishyTask;
+import net.gmx.nosefish.fishysigns.watcher.ITickCollector;
+import net.gmx.nosefish.fishysigns.world.WorldWriteBuffer;
+
+/**
+ * Runs the per-tick work of the watchers in fixed phases:
+ * <ol>
+ * <li><b>join</b>: wait for the activations dispatched on the previous tick</li>
+ * <li><b>apply</b>: write their lever and block changes to the world</li>
+ * <li><b>collect</b>: every <code>ITickCollector</code> takes its snapshot</li>
+ * <li><b>dispatch</b>: the snapshots are turned into activations in parallel,
+ *     and the activations run on the <code>ActivationExecutor</code> lanes</li>
+ * </ol>
+ * Collect and apply run in the server thread. The world writes caused by
+ * the changes of one tick land on the next tick: the server thread waits up
+ * to the join timeout for the activations. If they are still not done, the
+ * tick is counted as late, and collect and dispatch are skipped, so that only
+ * one tick's work is ever in flight. The changes are then collected on the
+ * next tick that finds the previous work done.
+ */
+public final class TickPipeline {
+	/**
+	 * Default time to wait for the previous tick's activations: 5 ms.
+	 */
+	public static final long DEFAULT_JOIN_TIMEOUT_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+	/**
+	 * Number of ticks after which work that is still in flight is given up,
+	 * so that a lost activation cannot stop the pipeline: one second.
+	 */
+	private static final int MAX_LATE_TICKS_IN_A_ROW = 20;
+
+	private static final TickPipeline instance = new TickPipeline();
+
+	private final CopyOnWriteArrayList<ITickCollector> collectors = new CopyOnWriteArrayList<ITickCollector>();
+	private volatile long joinTimeoutNanos = DEFAULT_JOIN_TIMEOUT_NANOS;
+	// the work dispatched on the previous tick, only used in the server thread
+	private TickBarrier inFlight = null;
+	private int lateTicksInARow = 0;
+	private final AtomicLong lateTicks = new AtomicLong(0L);
+
+	private TickPipeline() {
+		// singleton
+	}
+
+	public static TickPipeline getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Adds a collector. It will be called on every tick, after
+	 * the collectors that were added before it.
+	 *
+	 * @param collector
+	 */
+	public void addCollector(ITickCollector collector) {
+		collectors.addIfAbsent(collector);
+	}
+
+	/**
+	 * Removes a collector.
+	 *
+	 * @param collector
+	 */
+	public void removeCollector(ITickCollector collector) {
+		collectors.remove(collector);
+	}
+
+	/**
+	 * Sets how long the server thread may wait for the activations
+	 * of the previous tick before it applies the world writes.
+	 *
+	 * @param time
+	 *     a value <= 0 does not wait
+	 * @param unit
+	 */
+	public void setJoinTimeout(long time, TimeUnit unit) {
+		this.joinTimeoutNanos = Math.max(0L, unit.toNanos(time));
+	}
+
+	/**
+	 * Gets the number of ticks on which the previous tick's
+	 * activations had not finished within the join timeout.
+	 *
+	 * @return the number of late ticks
+	 */
+	public long getLateTicks() {
+		return lateTicks.get();
+	}
+
+	/**
+	 * Runs all phases for this tick.
+	 * Called by the FishyEngineListener when the server ticks. Do not call yourself!
+	 *
+	 * @param tick
+	 *     the current tick
+	 */
+	public void tick(long tick) {
+		boolean joined = join();
+		WorldWriteBuffer.getInstance().flush(tick);
+		if (! joined) {
+			if (++lateTicksInARow < MAX_LATE_TICKS_IN_A_ROW) {
+				// don't overlap with the work that is still in flight
+				return;
+			}
+			Log.get().logWarning("TickPipeline: activations still not done after "
+					+ lateTicksInARow + " ticks, dispatching anyway.");
+		}
+		lateTicksInARow = 0;
+		TickBarrier barrier = new TickBarrier();
+		for (ITickCollector collector : collectors) {
+			ITickCollector.Job job;
+			try {
+				job = collector.collect(tick);
+			} catch (RuntimeException e) {
+				Log.get().logStacktrace("TickPipeline: exception while collecting in "
+						+ collector.getClass().getSimpleName(), e);
+				continue;
+			}
+			if (job != null) {
+				barrier.register(1);
+				if (! new DispatchTask(job, barrier).submit()) {
+					barrier.arrive();
+				}
+			}
+		}
+		inFlight = barrier;
+	}
+
+	/**
+	 * Forgets the work in flight. Called when the plugin is disabled.
+	 */
+	public void reset() {
+		inFlight = null;
+		lateTicksInARow = 0;
+	}
+
+	/**
+	 * Waits for the work dispatched on the previous tick.
+	 *
+	 * @return <code>true</code> if it is done
+	 */
+	private boolean join() {
+		TickBarrier previous = inFlight;
+		if (previous == null || previous.isDone()) {
+			return true;
+		}
+		boolean done = false;
+		try {
+			done = previous.await(joinTimeoutNanos, TimeUnit.NANOSECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (! done) {
+			lateTicks.incrementAndGet();
+		}
+		return done;
+	}
+
+	/**
+	 * Prepares a collector's job and dispatches the activations.
+	 * Arrives at the barrier when <code>doStuff</code> is done. If the task
+	 * is rejected, <code>tick</code> arrives for it. A submitted task is only
+	 * skipped when the plugin is disabled, and then <code>reset</code>
+	 * drops the barrier.
+	 */
+	private static final class DispatchTask extends FishyTask {
+		private final ITickCollector.Job job;
+		private final TickBarrier barrier;
+
+		DispatchTask(ITickCollector.Job job, TickBarrier barrier) {
+			this.setThreadsafe_IPromiseThatThisDoesNotTouchTheWorld();
+			this.job = job;
+			this.barrier = barrier;
+		}
+
+		@Override
+		public void doStuff() {
+			try {
+				ActivationBatch batch = job.prepare();
+				if (batch != null) {
+					ActivationManager.getInstance().activateAll(batch, barrier);
+				}
+			} catch (RuntimeException e) {
+				Log.get().logStacktrace("TickPipeline: exception while preparing activations", e);
+			} finally {
+				barrier.arrive();
+			}
+		}
+	}
+}
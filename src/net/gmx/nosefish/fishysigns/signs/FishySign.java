@@ -59,6 +59,7 @@ public abstract class FishySign extends Anchor implements IAnchorable {
 	/**
 	 * Factory method to instantiate a FishySign.
 	 * Called by FishySignLoaderTask when a sign is found in a newly loaded chunk.
+	 * May be called from several loader threads at once.
 	 * 
 	 * @param sign
 	 * @return the newly loaded and registered FishySign, or null if it wasn't a valid FishySign
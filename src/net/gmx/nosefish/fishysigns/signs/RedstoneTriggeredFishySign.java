@@ -59,16 +59,25 @@ public abstract class RedstoneTriggeredFishySign
 	}
 
 	protected boolean isRisingEdge(IOSignal oldS, IOSignal newS, int pin) {
+		if (pin < IOSignal.MASK_PINS) {
+			return ((oldS.getRisingEdges(newS) >>> pin) & 1L) != 0L;
+		}
 		return (! oldS.getState(pin) && newS.getState(pin));
 	}
 	
 	protected boolean isFallingEdge(IOSignal oldS, IOSignal newS, int pin) {
+		if (pin < IOSignal.MASK_PINS) {
+			return ((oldS.getFallingEdges(newS) >>> pin) & 1L) != 0L;
+		}
 		return (oldS.getState(pin) && ! newS.getState(pin));
 	}
 	
 	
+	/**
+	 * @return <code>true</code> if any pin differs between the signals
+	 */
 	protected boolean isChange(IOSignal oldS, IOSignal newS) {
-		return oldS.equals(newS);
+		return ! oldS.equals(newS);
 	}
 	/**
 	 * Do not call this constructor directly.
@@ -6,6 +6,8 @@ import java.util.Set;
 import java.util.concurrent.Delayed;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 import net.gmx.nosefish.fishysigns.exception.DisabledException;
 import net.gmx.nosefish.fishysigns.plugin.engine.ServerTicker;
@@ -16,20 +18,36 @@ import net.gmx.nosefish.fishysigns.plugin.engine.ServerTicker;
  * 
  * Overriding any of the non-abstract methods is probably a bad idea,
  * unless you want to use a different task manager. 
+ * <p>
+ * The <code>set*</code> methods only configure the task. <code>submit</code>
+ * publishes the configuration as an immutable <code>Schedule</code>, together
+ * with the absolute due tick and time, and the task runner only reads that.
+ * Changes made while the task is queued take effect on the next
+ * <code>submit</code>, except for <code>stopRepeating</code> and
+ * <code>cancel</code>, which take effect after the current run.
  * 
  * @author Stefan Steinheimer (nosefish)
  *
  */
 public abstract class FishyTask implements Runnable, Delayed, TickDelayed {
-	private final EnumSet<FishyTaskProperties> taskProperties;
+	private static final int REPEAT_MASK = FishyTaskProperties.TICKREPEAT.getMask()
+	                                     | FishyTaskProperties.TIMEREPEAT.getMask();
+	// bit mask of FishyTaskProperties, as configured by the setters
+	private final AtomicInteger configuredProperties = new AtomicInteger(0);
 	private volatile FishyTask nextTask = null;
 	private volatile boolean cancelled = false;
 	private volatile long timeDelayNanos = 0L;
 	private volatile long repeatDelayNanos = 0L;
-	private volatile long submitTimeNanos = 0L;
 	private volatile long tickDelay = 0L;
 	private volatile long repeatDelayTicks = 0L;
-	private volatile long submitTick = 0L;
+	private volatile RepeatMode repeatMode = RepeatMode.FIXED_RATE;
+	private volatile MissedRunPolicy missedRunPolicy = MissedRunPolicy.SKIP;
+	// published by submit, null before the first submit
+	private volatile Schedule schedule = null;
+	// set by the task runner while the task waits in its timing wheel
+	private volatile TickTimingWheel.Timeout<FishyTask> timeout = null;
+	// not a monitor, so that a blocking doStuff does not pin a virtual thread
+	private final ReentrantLock runLock = new ReentrantLock();
 	
 
 	/**
@@ -41,7 +59,7 @@ public abstract class FishyTask implements Runnable, Delayed, TickDelayed {
 	 * 		the task to run as a FishyTask
 	 */
 	public FishyTask() {
-		this.taskProperties = EnumSet.noneOf(FishyTaskProperties.class);
+		// no properties
 	}
 	
 	/**
@@ -58,15 +76,15 @@ public abstract class FishyTask implements Runnable, Delayed, TickDelayed {
 	 * 
 	 * @param task
 	 */
-	public synchronized void setNextTask(FishyTask task) {
+	public void setNextTask(FishyTask task) {
 		this.nextTask = task;
 	}
 	
 	/**
 	 * Sets the task to run in a worker thread outside the main server thread.
 	 */
-	public synchronized void setThreadsafe_IPromiseThatThisDoesNotTouchTheWorld() {
-		this.taskProperties.add(FishyTaskProperties.THREADSAFE);
+	public void setThreadsafe_IPromiseThatThisDoesNotTouchTheWorld() {
+		this.setProperty(FishyTaskProperties.THREADSAFE, true);
 	}
 	
 	/**
@@ -80,13 +98,13 @@ public abstract class FishyTask implements Runnable, Delayed, TickDelayed {
 	 * @param time
 	 * @param unit
 	 */
-	public synchronized void setTimeDelay(long time, TimeUnit unit) {
+	public void setTimeDelay(long time, TimeUnit unit) {
 		if (time > 0L) {
 			this.timeDelayNanos = TimeUnit.NANOSECONDS.convert(time, unit);
-			this.taskProperties.add(FishyTaskProperties.TIMEDELAYED);
+			this.setProperty(FishyTaskProperties.TIMEDELAYED, true);
 		} else {
 			this.timeDelayNanos = 0L;
-			this.taskProperties.remove(FishyTaskProperties.TIMEDELAYED);
+			this.setProperty(FishyTaskProperties.TIMEDELAYED, false);
 		}
 	}
 
@@ -103,41 +121,67 @@ public abstract class FishyTask implements Runnable, Delayed, TickDelayed {
 	 * @param ticks 
 	 * 		number of ticks to wait before executing the task.
 	 */
-	public synchronized void setTickDelay(long ticks) {
+	public void setTickDelay(long ticks) {
 		if (ticks >= 0) {
 			this.tickDelay = ticks;
-			this.taskProperties.add(FishyTaskProperties.TICKDELAYED);
+			this.setProperty(FishyTaskProperties.TICKDELAYED, true);
 		} else {
 			this.tickDelay = 0L;
-			this.taskProperties.remove(FishyTaskProperties.TICKDELAYED);
+			this.setProperty(FishyTaskProperties.TICKDELAYED, false);
 		}
 	}
 
-	public synchronized void setTimeRepeatDelay(long time, TimeUnit unit) {
+	public void setTimeRepeatDelay(long time, TimeUnit unit) {
 		if (time >= 0) {
 			this.repeatDelayNanos = TimeUnit.NANOSECONDS.convert(time, unit);
-			this.taskProperties.add(FishyTaskProperties.TIMEREPEAT);
+			this.setProperty(FishyTaskProperties.TIMEREPEAT, true);
 		} else {
 			this.repeatDelayNanos = 0L;
-			this.taskProperties.remove(FishyTaskProperties.TIMEREPEAT);
+			this.setProperty(FishyTaskProperties.TIMEREPEAT, false);
 		}
 	}
 
-	public synchronized void setTickRepeatDelay(long ticks) {
+	public void setTickRepeatDelay(long ticks) {
 		if (ticks >= 0) {
 			this.repeatDelayTicks = ticks;
-			this.taskProperties.add(FishyTaskProperties.TICKREPEAT);
+			this.setProperty(FishyTaskProperties.TICKREPEAT, true);
 		} else {
 			this.repeatDelayTicks = 0L;
-			this.taskProperties.remove(FishyTaskProperties.TICKREPEAT);
+			this.setProperty(FishyTaskProperties.TICKREPEAT, false);
 		}
 	}
 
-	public synchronized void stopRepeating() {
+	/**
+	 * Sets how the runs of a repeating task are spaced.
+	 * The default is <code>RepeatMode.FIXED_RATE</code>.
+	 * 
+	 * @param mode
+	 */
+	public void setRepeatMode(RepeatMode mode) {
+		if (mode == null) {
+			throw new NullPointerException("RepeatMode must not be null");
+		}
+		this.repeatMode = mode;
+	}
+
+	/**
+	 * Sets what a fixed-rate task does when it falls behind.
+	 * The default is <code>MissedRunPolicy.SKIP</code>.
+	 * 
+	 * @param policy
+	 */
+	public void setMissedRunPolicy(MissedRunPolicy policy) {
+		if (policy == null) {
+			throw new NullPointerException("MissedRunPolicy must not be null");
+		}
+		this.missedRunPolicy = policy;
+	}
+
+	public void stopRepeating() {
 		this.repeatDelayTicks = 0L;
-		this.taskProperties.remove(FishyTaskProperties.TICKREPEAT);
+		this.setProperty(FishyTaskProperties.TICKREPEAT, false);
 		this.repeatDelayNanos = 0L;
-		this.taskProperties.remove(FishyTaskProperties.TIMEREPEAT);
+		this.setProperty(FishyTaskProperties.TIMEREPEAT, false);
 	}
 
 	/**
@@ -147,13 +191,20 @@ public abstract class FishyTask implements Runnable, Delayed, TickDelayed {
 	 * 		<code>false</code> otherwise.
 	 * 		A return value of <code>false</code> usually indicates that the plugin has been disabled."
 	 */
-	public synchronized boolean submit() {
+	public boolean submit() {
 		try {
 			if (this.isCancelled()) {
 				return false;
 			}
-			submitTimeNanos = System.nanoTime();
-			submitTick = ServerTicker.getInstance().getTickCount();
+			long submitTick = ServerTicker.getInstance().getTickCount();
+			schedule = new Schedule(configuredProperties.get(),
+			                        submitTick + tickDelay,
+			                        System.nanoTime() + timeDelayNanos,
+			                        repeatDelayTicks,
+			                        repeatDelayNanos,
+			                        repeatMode,
+			                        missedRunPolicy,
+			                        null);
 			FishyTaskManager.submit(this);
 		} catch(RejectedExecutionException e) {
 			this.cancel();
@@ -166,10 +217,11 @@ public abstract class FishyTask implements Runnable, Delayed, TickDelayed {
 	}
 	
 	@Override
-	public synchronized void run() {
+	public void run() {
+		runLock.lock();
 		try {
-			long startTime = System.nanoTime();
-			long startTick = ServerTicker.getInstance().getTickCount();
+			// throws if the plugin has been disabled
+			ServerTicker.getInstance().getTickCount();
 			// run it
 			if (! cancelled) {
 				this.doStuff();
@@ -177,35 +229,80 @@ public abstract class FishyTask implements Runnable, Delayed, TickDelayed {
 			if (! cancelled && nextTask != null) {
 				nextTask.submit();
 			}
-			// resubmit repeating tasks
-			if (taskProperties.contains(FishyTaskProperties.TIMEREPEAT)
-					|| taskProperties.contains(FishyTaskProperties.TICKREPEAT)) {
-				// time
-				if (taskProperties.contains(FishyTaskProperties.TIMEREPEAT)) {
-					long runTime = startTime - System.nanoTime();
-					this.setTimeDelay(repeatDelayNanos - runTime, TimeUnit.NANOSECONDS);
+			// rearm repeating tasks, unless stopRepeating has been called
+			Schedule current = schedule;
+			int properties = (current == null) ? 0
+					: current.properties & (configuredProperties.get() | ~REPEAT_MASK);
+			if (! cancelled && (properties & REPEAT_MASK) != 0) {
+				long nextTick = current.dueTick;
+				long nextNanos = current.dueNanos;
+				if ((properties & FishyTaskProperties.TICKREPEAT.getMask()) != 0) {
+					long period = Math.max(1L, current.repeatDelayTicks);
+					nextTick = nextDue(current, current.dueTick, ServerTicker.getInstance().getTickCount(), period);
 				}
-				// tick
-				if (taskProperties.contains(FishyTaskProperties.TICKREPEAT)) {
-					long runTicks = startTick - ServerTicker.getInstance().getTickCount();
-					this.setTickDelay(repeatDelayTicks - runTicks);
+				if ((properties & FishyTaskProperties.TIMEREPEAT.getMask()) != 0) {
+					nextNanos = nextDue(current, current.dueNanos, System.nanoTime(), current.repeatDelayNanos);
 				}
-				if (! cancelled) this.submit();
+				schedule = new Schedule(properties,
+				                        nextTick,
+				                        nextNanos,
+				                        current.repeatDelayTicks,
+				                        current.repeatDelayNanos,
+				                        current.repeatMode,
+				                        current.missedRunPolicy,
+				                        current);
+				FishyTaskManager.reschedule(this);
 			}
 		} catch(RejectedExecutionException e) {
 			this.cancel();
 		} catch (DisabledException e){
 			this.cancel();
+		} finally {
+			runLock.unlock();
+		}
+	}
+
+	/**
+	 * Computes when a repeating task runs next.
+	 * 
+	 * @param current
+	 *     the schedule of the run that just finished
+	 * @param due
+	 *     when the run that just finished was due
+	 * @param now
+	 *     the current tick or time
+	 * @param period
+	 * @return
+	 *     when the next run is due
+	 */
+	private static long nextDue(Schedule current, long due, long now, long period) {
+		if (current.repeatMode == RepeatMode.FIXED_DELAY) {
+			return now + period;
+		}
+		long next = due + period;
+		if (next - now > 0 || current.missedRunPolicy == MissedRunPolicy.CATCH_UP) {
+			return next;
+		}
+		if (period <= 0) {
+			return now;
 		}
+		// skip to the first run that is still in the future
+		long missed = (now - next) / period + 1;
+		return next + missed * period;
 	}
 
 	/**
 	 * Cancels this task and all subsequent tasks in the chain.
 	 * If a task is already running, the execution will finish
-	 * before this takes effect.
+	 * before this takes effect. A task that waits for its tick
+	 * is removed from the task runner's timing wheel.
 	 */
 	public void cancel() {
 		this.cancelled = true;
+		TickTimingWheel.Timeout<FishyTask> pending = timeout;
+		if (pending != null) {
+			pending.cancel();
+		}
 		if (nextTask != null) {
 			nextTask.cancel();
 		}
@@ -216,20 +313,86 @@ public abstract class FishyTask implements Runnable, Delayed, TickDelayed {
 	}
 	
 	/**
-	 * Gets the task's properties; used internally.
+	 * Called by the task runner when it schedules the task
+	 * in its timing wheel, so that <code>cancel</code> can
+	 * cancel the timeout.
+	 * 
+	 * @param timeout
+	 *     the handle returned by the wheel
+	 */
+	void setTimeout(TickTimingWheel.Timeout<FishyTask> timeout) {
+		this.timeout = timeout;
+		if (cancelled) {
+			// cancelled while being scheduled
+			timeout.cancel();
+		}
+	}
+	
+	/**
+	 * Gets the properties the task was last submitted with, or the
+	 * configured ones if it has not been submitted yet.
+	 * Only allocates before the first <code>submit</code>.
+	 *
+	 * @return the task's properties, unmodifiable
+	 */
+	public Set<FishyTaskProperties> getTaskProperties() {
+		Schedule current = schedule;
+		if (current != null) {
+			return current.propertySet;
+		}
+		return toPropertySet(configuredProperties.get());
+	}
+
+	/**
+	 * Checks if the task has a property, see <code>getTaskProperties</code>.
+	 * Does not lock.
+	 *
+	 * @param property
+	 * @return <code>true</code> if the task has the property
+	 */
+	public boolean hasProperty(FishyTaskProperties property) {
+		return (getPropertyMask() & property.getMask()) != 0;
+	}
+
+	/**
+	 * Gets the task's properties as a bit mask, see
+	 * <code>FishyTaskProperties.getMask</code> and <code>getTaskProperties</code>.
+	 * Does not lock.
 	 *
-	 * @return the task's properties
+	 * @return the bit mask
 	 */
-	public synchronized Set<FishyTaskProperties> getTaskProperties() {
-		return Collections.unmodifiableSet(taskProperties);
+	public int getPropertyMask() {
+		Schedule current = schedule;
+		return (current != null) ? current.properties : configuredProperties.get();
+	}
+
+	private void setProperty(FishyTaskProperties property, boolean on) {
+		int bit = property.getMask();
+		while (true) {
+			int current = configuredProperties.get();
+			int next = on ? (current | bit) : (current & ~bit);
+			if (current == next || configuredProperties.compareAndSet(current, next)) {
+				return;
+			}
+		}
+	}
+
+	private static Set<FishyTaskProperties> toPropertySet(int mask) {
+		EnumSet<FishyTaskProperties> properties = EnumSet.noneOf(FishyTaskProperties.class);
+		for (FishyTaskProperties property : FishyTaskProperties.values()) {
+			if ((mask & property.getMask()) != 0) {
+				properties.add(property);
+			}
+		}
+		return Collections.unmodifiableSet(properties);
 	}
 
 	/**
 	 * Gets the remaining delay time.
 	 */
 	@Override
-	public synchronized long getDelay(TimeUnit timeUnit) {
-		long remaining = (submitTimeNanos + timeDelayNanos) - System.nanoTime();
+	public long getDelay(TimeUnit timeUnit) {
+		long remaining = getDueNanos() - System.nanoTime();
 		return timeUnit.convert(remaining, TimeUnit.NANOSECONDS);
 	}
 
@@ -237,10 +400,10 @@ public abstract class FishyTask implements Runnable, Delayed, TickDelayed {
 	 * Gets the remaining number of delay ticks.
 	 */
 	@Override
-	public synchronized long getTickDelay() {
+	public long getTickDelay() {
 		long remaining;
 		try {
-			remaining = (submitTick + tickDelay) - ServerTicker.getInstance().getTickCount();
+			remaining = getTargetTick() - ServerTicker.getInstance().getTickCount();
 		} catch(DisabledException e) {
 			this.cancel();
 			remaining = -1;
@@ -248,15 +411,77 @@ public abstract class FishyTask implements Runnable, Delayed, TickDelayed {
 		return remaining;
 	}
 
+	/**
+	 * Gets the server tick on which the tick delay of this task expires.
+	 *
+	 * @return the absolute tick number
+	 */
+	public long getTargetTick() {
+		Schedule current = schedule;
+		return (current != null) ? current.dueTick : 0L;
+	}
+
+	/**
+	 * Gets the <code>System.nanoTime</code> at which the time delay of this task expires.
+	 *
+	 * @return the absolute time in nanoseconds
+	 */
+	public long getDueNanos() {
+		Schedule current = schedule;
+		return (current != null) ? current.dueNanos : 0L;
+	}
+
 	/**
 	 * Compares results of <code>getDelay</code>, as required by the <code>Delayed</code> interface
 	 */
 	@Override
 	public int compareTo(Delayed other) {
-		long myDelay = this.getDelay(TimeUnit.NANOSECONDS);
-		long otherDelay = other.getDelay(TimeUnit.NANOSECONDS);
-		if (myDelay < otherDelay) return -1;
-		if (myDelay > otherDelay) return 1;
+		long diff;
+		if (other instanceof FishyTask) {
+			// same clock, no need to read it
+			diff = this.getDueNanos() - ((FishyTask) other).getDueNanos();
+		} else {
+			diff = this.getDelay(TimeUnit.NANOSECONDS) - other.getDelay(TimeUnit.NANOSECONDS);
+		}
+		if (diff < 0) return -1;
+		if (diff > 0) return 1;
 		return 0;
 	}
+
+	/**
+	 * What the task runner needs to know about a submitted task.
+	 * Immutable, replaced on every <code>submit</code> and rearm.
+	 */
+	private static final class Schedule {
+		private final int properties;
+		private final Set<FishyTaskProperties> propertySet;
+		// absolute due tick and time
+		private final long dueTick;
+		private final long dueNanos;
+		private final long repeatDelayTicks;
+		private final long repeatDelayNanos;
+		private final RepeatMode repeatMode;
+		private final MissedRunPolicy missedRunPolicy;
+
+		/**
+		 * @param previous
+		 *     the schedule of the previous run, to share the property set
+		 *     if the properties have not changed; may be <code>null</code>
+		 */
+		Schedule(int properties, long dueTick, long dueNanos,
+		         long repeatDelayTicks, long repeatDelayNanos,
+		         RepeatMode repeatMode, MissedRunPolicy missedRunPolicy,
+		         Schedule previous) {
+			this.properties = properties;
+			this.propertySet = (previous != null && previous.properties == properties)
+					? previous.propertySet
+					: toPropertySet(properties);
+			this.dueTick = dueTick;
+			this.dueNanos = dueNanos;
+			this.repeatDelayTicks = repeatDelayTicks;
+			this.repeatDelayNanos = repeatDelayNanos;
+			this.repeatMode = repeatMode;
+			this.missedRunPolicy = missedRunPolicy;
+		}
+	}
 }
@@ -10,9 +10,32 @@ public class FishyTaskManager {
 	/**
 	 * Initializes the FishyTaskRunner instance. Called by the plugin.
 	 * @param owner
+	 *     not used
+	 * @deprecated use <code>initialize(TaskRunnerConfig)</code>
 	 */
+	@Deprecated
 	public static void initialize(TaskOwner owner) {
-		FishyTaskRunnerInstance = new FishyTaskRunner(owner);
+		initialize(TaskRunnerConfig.defaults());
+	}
+	
+	/**
+	 * Initializes the FishyTaskRunner instance with the given settings.
+	 * @param owner
+	 *     not used
+	 * @param config
+	 * @deprecated use <code>initialize(TaskRunnerConfig)</code>
+	 */
+	@Deprecated
+	public static void initialize(TaskOwner owner, TaskRunnerConfig config) {
+		initialize(config);
+	}
+	
+	/**
+	 * Initializes the FishyTaskRunner instance with the given settings. Called by the plugin.
+	 * @param config
+	 */
+	public static void initialize(TaskRunnerConfig config) {
+		FishyTaskRunnerInstance = new FishyTaskRunner(config);
 		FishyTaskRunnerInstance.start();
 	}
 	
@@ -33,6 +56,20 @@ public class FishyTaskManager {
 		FishyTaskRunnerInstance.submit(task);
 	}
 	
+	/**
+	 * Puts a repeating task that has just run back into its
+	 * tick or time delay queue. Called by the task.
+	 * 
+	 * @param task
+	 * @throws RejectedExecutionException
+	 */
+	static void reschedule(FishyTask task) throws RejectedExecutionException {
+		if (FishyTaskRunnerInstance == null) {
+			throw new AssertionError("FishyTaskManager: reschedule() called before initialize().");
+		}
+		FishyTaskRunnerInstance.reschedule(task);
+	}
+	
 	/**
 	 * Gets the FishyTaskRunner instance for FishySigns.
 	 * @return the instance
@@ -9,4 +9,13 @@ public enum FishyTaskProperties {
 	
 	static Set<FishyTaskProperties> DELAYS = Collections.unmodifiableSet(EnumSet.of(TIMEDELAYED, TICKDELAYED));
 	static Set<FishyTaskProperties> REPEATS = Collections.unmodifiableSet(EnumSet.of(TIMEREPEAT, TICKREPEAT));
+	
+	/**
+	 * Gets the bit of this property in <code>FishyTask.getPropertyMask</code>.
+	 * 
+	 * @return the bit
+	 */
+	public int getMask() {
+		return 1 << ordinal();
+	}
 }
@@ -1,60 +1,122 @@
 package net.gmx.nosefish.fishysigns.task;
 
-import java.util.EnumSet;
+import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.Set;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.DelayQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
-import net.canarymod.tasks.ServerTask;
-import net.canarymod.tasks.ServerTaskManager;
 import net.canarymod.tasks.TaskOwner;
 import net.gmx.nosefish.fishysigns.Log;
+import net.gmx.nosefish.fishysigns.exception.DisabledException;
+import net.gmx.nosefish.fishysigns.plugin.engine.ServerTicker;
 
 public class FishyTaskRunner {
+	private static final int DELAY_MASK = FishyTaskProperties.TICKDELAYED.getMask()
+	                                    | FishyTaskProperties.TIMEDELAYED.getMask();
+
 	private volatile boolean shutdown = false;
 
-	private final TaskOwner owner;
-	private final ExecutorService workerPool;
+	private final InstrumentedThreadPoolExecutor workerPool;
+	// null unless threadsafe tasks run in virtual threads
+	private final VirtualThreadExecutor virtualExecutor;
+	// non-threadsafe tasks, drained by tick()
+	private final ConcurrentLinkedQueue<FishyTask> serverQueue = new ConcurrentLinkedQueue<FishyTask>();
+	private volatile long serverTickBudgetNanos;
+	private final long statsLogIntervalSeconds;
+	// null unless statistics are logged
+	private volatile FishyTask statisticsLogTask = null;
 	
 	private final ExecutorService queuePool;
-	private final FishyTaskSorter inputSorter, timeDelaySorter, tickDelaySorter;
+	private final FishyTaskSorter timeDelaySorter;
+	private final TickDelaySorter tickDelaySorter;
 	
 	/**
-	 * Constructor
+	 * Constructor, uses the default settings.
 	 * @param owner 
-	 * 			the <code>TaskOwner</code> to use when running a task through the <code>ServerTaskManager</code>;
-	 * 			usually the plugin.
+	 * 			not used, tasks for the server thread are run by
+	 * 			<code>tick</code>, not through the <code>ServerTaskManager</code>
+	 * @deprecated use <code>FishyTaskRunner(TaskRunnerConfig)</code>
 	 */
+	@Deprecated
 	public FishyTaskRunner(TaskOwner owner){
-		this.owner = owner;
+		this(TaskRunnerConfig.defaults());
+	}
+	
+	/**
+	 * Constructor
+	 * @param owner 
+	 * 			not used, see above
+	 * @param config
+	 * 			the thread pool settings
+	 * @deprecated use <code>FishyTaskRunner(TaskRunnerConfig)</code>
+	 */
+	@Deprecated
+	public FishyTaskRunner(TaskOwner owner, TaskRunnerConfig config){
+		this(config);
+	}
+	
+	/**
+	 * Constructor
+	 * @param config
+	 * 			the thread pool settings
+	 */
+	public FishyTaskRunner(TaskRunnerConfig config){
 		// prepare Executors
-		//TODO: make configurable
-		this.workerPool = Executors.newFixedThreadPool(8);
-		if (workerPool instanceof ThreadPoolExecutor) {
-			((ThreadPoolExecutor)workerPool).setMaximumPoolSize(16);
+		BlockingQueue<Runnable> workQueue;
+		if (config.getWorkerQueueSize() > 0) {
+			workQueue = new ArrayBlockingQueue<Runnable>(config.getWorkerQueueSize());
+		} else {
+			workQueue = new LinkedBlockingQueue<Runnable>();
 		}
-		this.queuePool = Executors.newCachedThreadPool();
+		this.workerPool = new InstrumentedThreadPoolExecutor(
+				config.getWorkerThreads(),
+				config.getWorkerMaxThreads(),
+				workQueue,
+				new FishyThreadFactory(config.getThreadNamePrefix(), config.getThreadPriority()),
+				config.getRejectionPolicy().createHandler());
+		this.virtualExecutor = config.isVirtualThreads()
+				? VirtualThreadExecutor.create(config.getThreadNamePrefix())
+				: null;
+		this.queuePool = Executors.newSingleThreadExecutor(
+				new FishyThreadFactory("FishySigns-timer-", config.getThreadPriority()));
+		this.serverTickBudgetNanos = TimeUnit.MILLISECONDS.toNanos(config.getServerTickBudgetMillis());
+		this.statsLogIntervalSeconds = config.getStatsLogIntervalSeconds();
 		// prepare sorters
-		this.inputSorter = new FishyTaskInputSorter();
 		this.timeDelaySorter = new TimeDelaySorter();
 		this.tickDelaySorter = new TickDelaySorter();
 	}
 	
+	/**
+	 * Starts the time delay sorter and, if configured,
+	 * the periodic statistics log.
+	 * Call after <code>FishyTaskManager</code> knows this runner.
+	 */
 	public void start() {
 		queuePool.execute(timeDelaySorter);
-		queuePool.execute(inputSorter);
+		if (statsLogIntervalSeconds > 0L) {
+			statisticsLogTask = new StatisticsLogTask(this, statsLogIntervalSeconds);
+			statisticsLogTask.submit();
+		}
 	}
 	
 	/**
 	 * Enqueues a <code>FishyTask</code> for execution.
+	 * <p>
+	 * The task is sorted in the calling thread: undelayed tasks go
+	 * straight to the worker pool or the server queue, delayed tasks
+	 * to the time or tick delay sorter.
+	 * 
 	 * @param task the task to execute
 	 * @throws RejectedExecutionException if the task cannot be executed
 	 */
@@ -62,18 +124,150 @@ public class FishyTaskRunner {
 		if (this.shutdown) {
 			throw new RejectedExecutionException("FishyTaskRunner is shutting down.");
 		}
-		this.inputSorter.submit(task);
+		final int taskProperties = task.getPropertyMask();
+		if ((taskProperties & FishyTaskProperties.TICKDELAYED.getMask()) != 0) {
+			tickDelaySorter.submit(task);
+		}
+		if ((taskProperties & FishyTaskProperties.TIMEDELAYED.getMask()) != 0) {
+			timeDelaySorter.submit(task);
+		}
+		if ((taskProperties & DELAY_MASK) == 0) {
+			// no delay, run now
+			if ((taskProperties & FishyTaskProperties.THREADSAFE.getMask()) != 0) {
+				runThreadsafe(task);
+			} else {
+				runInServer(task);
+			}
+		}
+	}
+	
+	/**
+	 * Puts a repeating task that has just run back into the
+	 * tick or time delay sorter, without sorting it again.
+	 * The task must have set its next due tick or time.
+	 * 
+	 * @param task the task to rearm
+	 * @throws RejectedExecutionException if the runner is shutting down
+	 */
+	void reschedule(FishyTask task) throws RejectedExecutionException {
+		if (this.shutdown) {
+			throw new RejectedExecutionException("FishyTaskRunner is shutting down.");
+		}
+		if (task.hasProperty(FishyTaskProperties.TICKREPEAT)) {
+			tickDelaySorter.submit(task);
+		}
+		if (task.hasProperty(FishyTaskProperties.TIMEREPEAT)) {
+			timeDelaySorter.submit(task);
+		}
+	}
+	
+	/**
+	 * Sets the time per tick that may be spent running queued tasks
+	 * in the server thread. When it is used up, the remaining tasks
+	 * run on the next tick. At least one task runs on every tick.
+	 * 
+	 * @param time
+	 *     the budget, a value <= 0 runs all queued tasks on every tick
+	 * @param unit
+	 */
+	public void setServerTickBudget(long time, TimeUnit unit) {
+		this.serverTickBudgetNanos = Math.max(0L, unit.toNanos(time));
+	}
+	
+	/**
+	 * Gets the number of tasks waiting to run in the server thread.
+	 * 
+	 * @return the number of queued tasks
+	 */
+	public int getServerQueueSize() {
+		return serverQueue.size();
+	}
+	
+	/**
+	 * Gets the number of threadsafe tasks waiting for a worker thread.
+	 * 
+	 * @return the number of queued tasks
+	 */
+	public int getWorkerQueueDepth() {
+		return workerPool.getQueue().size();
+	}
+	
+	/**
+	 * Gets the approximate number of worker threads that are running a task.
+	 * 
+	 * @return the number of busy workers
+	 */
+	public int getWorkerActiveCount() {
+		if (virtualExecutor != null) {
+			return virtualExecutor.getActiveCount();
+		}
+		return workerPool.getActiveCount();
+	}
+	
+	/**
+	 * Gets the current number of worker threads.
+	 * 
+	 * @return the number of workers
+	 */
+	public int getWorkerPoolSize() {
+		return workerPool.getPoolSize();
+	}
+	
+	/**
+	 * Gets the wait and run times of the threadsafe tasks.
+	 * 
+	 * @return the live statistics
+	 */
+	public TaskStatistics getWorkerStatistics() {
+		if (virtualExecutor != null) {
+			return virtualExecutor.getStatistics();
+		}
+		return workerPool.getStatistics();
 	}
 	
 	/**
-	 * Wraps the <code>FishyTask</code> in a <code>FishyServerTask</code>
-	 * and adds it to the server queue.
+	 * Finds out if threadsafe tasks run in virtual threads.
+	 * 
+	 * @return <code>true</code> if they do
+	 */
+	public boolean isUsingVirtualThreads() {
+		return virtualExecutor != null;
+	}
+	
+	/**
+	 * Runs a threadsafe <code>FishyTask</code> in a virtual thread
+	 * if enabled, in the worker pool otherwise.
+	 * 
+	 * If the pool rejects the task while the runner is not shutting down,
+	 * the rejection is logged. The caller cancels the task.
+	 * 
+	 * @param task the task to run
+	 * @throws RejectedExecutionException if the task cannot be executed
+	 */
+	private void runThreadsafe(FishyTask task) throws RejectedExecutionException {
+		try {
+			if (virtualExecutor != null) {
+				virtualExecutor.execute(task);
+			} else {
+				workerPool.execute(task);
+			}
+		} catch (RejectedExecutionException e) {
+			if (! this.shutdown) {
+				Log.get().logWarning("The worker pool rejected a FishyTask, it will be cancelled: " + task
+						+ ". Consider increasing " + TaskRunnerConfig.WORKER_QUEUE_SIZE + ".");
+			}
+			throw e;
+		}
+	}
+	
+	/**
+	 * Adds the <code>FishyTask</code> to the server queue,
+	 * to be run by <code>tick</code>.
 	 * 
 	 * @param task the task to run in the server
 	 */
 	private void runInServer(FishyTask task) {
-		ServerTask serverTask = new FishyServerTask(task);
-		ServerTaskManager.addTask(serverTask);
+		serverQueue.offer(task);
 	}
 	
 	/**
@@ -81,6 +275,27 @@ public class FishyTaskRunner {
 	 */
 	public void tick() {
 		tickDelaySorter.run();
+		runServerQueue();
+	}
+	
+	/**
+	 * Runs queued tasks until the queue is empty or the
+	 * time budget for this tick is used up.
+	 */
+	private void runServerQueue() {
+		long budget = serverTickBudgetNanos;
+		long deadline = System.nanoTime() + budget;
+		FishyTask task;
+		while (! shutdown && (task = serverQueue.poll()) != null) {
+			try {
+				task.run();
+			} catch (RuntimeException e) {
+				Log.get().logStacktrace("Exception while running a FishyTask in the server thread: " + task, e);
+			}
+			if (budget > 0L && System.nanoTime() - deadline >= 0L) {
+				break;
+			}
+		}
 	}
 	
 	/**
@@ -89,47 +304,65 @@ public class FishyTaskRunner {
 	 */
 	public void shutdown() {
 		this.shutdown = true;
+		FishyTask logTask = statisticsLogTask;
+		if (logTask != null) {
+			logTask.cancel();
+		}
 		// shut down sorters
 		ShutdownTask poisonPill = new ShutdownTask();
-		inputSorter.submit(poisonPill);
 		timeDelaySorter.submit(poisonPill);
-		tickDelaySorter.submit(poisonPill);
+		tickDelaySorter.shutdown();
+		FishyTask queued;
+		while ((queued = serverQueue.poll()) != null) {
+			queued.cancel();
+		}
 		// shut down thread pools
 		queuePool.shutdown();
 		workerPool.shutdown();
+		if (virtualExecutor != null) {
+			virtualExecutor.shutdown();
+		}
 		try {
 			queuePool.awaitTermination(1, TimeUnit.SECONDS);
 			workerPool.awaitTermination(1, TimeUnit.SECONDS);
+			if (virtualExecutor != null) {
+				virtualExecutor.awaitTermination(1, TimeUnit.SECONDS);
+			}
 		} catch (InterruptedException e) {
 			Thread.currentThread().interrupt();
 			Log.get().logWarning("FishyTaskRunner was interrupted while waiting for the thread pool to shut down!");
 		} finally {
 			queuePool.shutdownNow();
 			workerPool.shutdownNow();
+			if (virtualExecutor != null) {
+				virtualExecutor.shutdownNow();
+			}
 		}
 		Log.get().logInfo("The FishyTaskRunner has been shut down.");
 	}
 	
 
 	/**
-	 * Wraps a <code>FishyTask</code> in a <code>ServerTask</code> for execution
-	 * by Canary's <code>ServerTaskManager</code>.
-	 * 
-	 * @author Stefan Steinheimer (nosefish)
-	 *
+	 * Creates named threads with the configured priority.
 	 */
-	private class FishyServerTask extends ServerTask {
-		private FishyTask task;
+	private static class FishyThreadFactory implements ThreadFactory {
+		private final AtomicInteger threadNumber = new AtomicInteger(1);
+		private final String namePrefix;
+		private final int priority;
 		
-		public FishyServerTask(FishyTask task) {
-			super(owner, 0, false);
-			this.task = task;
+		public FishyThreadFactory(String namePrefix, int priority) {
+			this.namePrefix = namePrefix;
+			this.priority = priority;
 		}
 		
-		public void run() {
-			task.run();
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, namePrefix + threadNumber.getAndIncrement());
+			thread.setDaemon(true);
+			thread.setPriority(priority);
+			return thread;
 		}
-	}
+	} // end of internal class
 	
 	/**
 	 * Poison pill that makes the task sorters shut down.
@@ -176,8 +409,8 @@ public class FishyTaskRunner {
 					} catch(InterruptedException e) {
 						break;
 					} catch(RejectedExecutionException e) {
-						// shutting down
-						break;
+						// only this task is lost, the poison pill stops the sorter
+						task.cancel();
 					}
 				}
 			} finally {
@@ -207,52 +440,6 @@ public class FishyTaskRunner {
 		protected abstract void sort(FishyTask task);
 
 	} // end of internal class
-
-	/**
-	 * Sorts incoming <code>FishyTask</code>s for execution
-	 * according to their properties.
-	 * 
-	 * @author Stefan Steinheimer (nosefish)
-	 *
-	 */
-	private class FishyTaskInputSorter extends FishyTaskSorter {
-		public FishyTaskInputSorter() {
-			super(new LinkedBlockingQueue<FishyTask>());
-		}
-		
-		/**
-		 * Sort task into appropriate execution queue
-		 * @param task
-		 */
-		@Override
-		protected void sort(FishyTask task) {
-			final Set<FishyTaskProperties> taskProperties = task.getTaskProperties();
-			if (taskProperties == null) {
-				task.cancel();
-				Log.get().logWarning("FishyTaskRunner canceled a task with null properties: " + task);
-				return;
-			}
-			// get all delay types
-			EnumSet<FishyTaskProperties> delays = EnumSet.copyOf(FishyTaskProperties.DELAYS);
-			// in-place intersection with task properties
-			delays.retainAll(taskProperties);
-			if (delays.isEmpty()) {
-				// no delay, run now
-				if (taskProperties.contains(FishyTaskProperties.THREADSAFE)) {
-					workerPool.execute(task);
-				} else {
-					runInServer(task);
-				}
-			} else {
-				if (taskProperties.contains(FishyTaskProperties.TICKDELAYED)) {
-					tickDelaySorter.submit(task);
-				}
-				if (taskProperties.contains(FishyTaskProperties.TIMEDELAYED)) {
-					timeDelaySorter.submit(task);
-				}
-			}
-		}
-	} // end of internal class
 	
 	
 	private class TimeDelaySorter extends FishyTaskSorter{
@@ -263,8 +450,8 @@ public class FishyTaskRunner {
 
 		@Override
 		protected void sort(FishyTask task) {
-			if (task.getTaskProperties().contains(FishyTaskProperties.THREADSAFE)) {
-				workerPool.execute(task);
+			if (task.hasProperty(FishyTaskProperties.THREADSAFE)) {
+				runThreadsafe(task);
 			} else {
 				runInServer(task);
 			}
@@ -274,50 +461,79 @@ public class FishyTaskRunner {
 	
 	/**
 	 * Executed by tick() in the server thread.
+	 * Keeps tick-delayed tasks in a <code>TickTimingWheel</code>, so that
+	 * each tick only touches the tasks that are due. Due tasks for the
+	 * server thread go to the server queue, so the tick budget applies to them.
 	 * @author StefanSteinheimer
 	 *
 	 */
-	private class TickDelaySorter extends FishyTaskSorter{
-		public TickDelaySorter() {
-			super(new TickDelayQueue<FishyTask>());
-		}
+	private class TickDelaySorter {
+		private final TickTimingWheel<FishyTask> wheel = new TickTimingWheel<FishyTask>();
+		// only used in the server thread
+		private final List<FishyTask> dueTasks = new ArrayList<FishyTask>();
+		private volatile boolean shutdown = false;
 
-		@Override
+		/**
+		 * Schedules a task for its target tick. Thread-safe.
+		 *
+		 * @param task
+		 */
 		public void submit(FishyTask task) {
-			super.submit(task);
-			if (task instanceof ShutdownTask) {
-				// the ShutdownTask is always submitted from the server thread
-				cleanup();
+			if (this.shutdown) {
+				throw new RejectedExecutionException(this.getClass().getName() +" has been shut down");
 			}
+			task.setTimeout(wheel.schedule(task, task.getTargetTick()));
 		}
-		
-		@Override
-		public void run(){
-			while (true) {
-				try {
-					FishyTask task = inQ.poll();
-					if (task == null) {
-						// no task is ready
-						// nothing left to do on this tick
-						break;
+
+		/**
+		 * Dispatches all tasks that are due on this tick.
+		 */
+		public void run() {
+			if (this.shutdown) {
+				return;
+			}
+			long now;
+			try {
+				now = ServerTicker.getInstance().getTickCount();
+			} catch (DisabledException e) {
+				return;
+			}
+			wheel.advance(now, dueTasks);
+			try {
+				for (FishyTask task : dueTasks) {
+					try {
+						sort(task);
+					} catch(RejectedExecutionException e) {
+						// only this task is lost, shutdown() stops the sorter
+						task.cancel();
+					} catch (RuntimeException e) {
+						Log.get().logStacktrace("Exception while dispatching a tick-delayed FishyTask: " + task, e);
 					}
-					sort(task);
-				} catch(RejectedExecutionException e) {
-					// shutting down
-					this.shutdown = true;
-					break;
 				}
+			} finally {
+				dueTasks.clear();
 			}
 		}
 
-		@Override
-		protected void sort(FishyTask task) {
-			if (task.getTaskProperties().contains(FishyTaskProperties.THREADSAFE)) {
-				workerPool.execute(task);
-			} else {
-				task.run();
+		/**
+		 * Cancels all pending tasks. Must be called from the server thread.
+		 */
+		public void shutdown() {
+			this.shutdown = true;
+			List<FishyTask> pending = new ArrayList<FishyTask>();
+			wheel.clear(pending);
+			for (FishyTask task : pending) {
+				task.cancel();
 			}
+			Log.get().logInfo("TickDelaySorter has been shut down.");
+		}
 
+		private void sort(FishyTask task) {
+			if (task.hasProperty(FishyTaskProperties.THREADSAFE)) {
+				runThreadsafe(task);
+			} else {
+				runInServer(task);
+			}
 		}
 	} // end of internal class
 
@@ -0,0 +1,83 @@
+package net.gmx.nosefish.fishysigns.task;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A <code>ThreadPoolExecutor</code> that records the queue wait
+ * and run time of each task in a <code>TaskStatistics</code>.
+ */
+final class InstrumentedThreadPoolExecutor extends ThreadPoolExecutor {
+	private final TaskStatistics statistics = new TaskStatistics();
+	// start time of the task running in the current worker
+	private final ThreadLocal<long[]> startNanos = new ThreadLocal<long[]>() {
+		@Override
+		protected long[] initialValue() {
+			return new long[1];
+		}
+	};
+
+	InstrumentedThreadPoolExecutor(int corePoolSize,
+	                               int maximumPoolSize,
+	                               BlockingQueue<Runnable> workQueue,
+	                               ThreadFactory threadFactory,
+	                               RejectedExecutionHandler handler) {
+		super(corePoolSize, maximumPoolSize, 60L, TimeUnit.SECONDS, workQueue, threadFactory, handler);
+	}
+
+	@Override
+	public void execute(Runnable command) {
+		if (command == null) {
+			throw new NullPointerException();
+		}
+		super.execute(new TimedRunnable(command));
+	}
+
+	@Override
+	protected void beforeExecute(Thread thread, Runnable runnable) {
+		super.beforeExecute(thread, runnable);
+		startNanos.get()[0] = System.nanoTime();
+	}
+
+	@Override
+	protected void afterExecute(Runnable runnable, Throwable thrown) {
+		super.afterExecute(runnable, thrown);
+		if (runnable instanceof TimedRunnable) {
+			long start = startNanos.get()[0];
+			long submitted = ((TimedRunnable) runnable).submitNanos;
+			statistics.record(start - submitted, System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * @return the statistics of the tasks run by this pool
+	 */
+	TaskStatistics getStatistics() {
+		return statistics;
+	}
+
+	/**
+	 * Remembers when the task was submitted.
+	 */
+	private static final class TimedRunnable implements Runnable {
+		private final Runnable task;
+		private final long submitNanos = System.nanoTime();
+
+		TimedRunnable(Runnable task) {
+			this.task = task;
+		}
+
+		@Override
+		public void run() {
+			task.run();
+		}
+
+		@Override
+		public String toString() {
+			return task.toString();
+		}
+	}
+}
@@ -0,0 +1,18 @@
+package net.gmx.nosefish.fishysigns.task;
+
+/**
+ * What a <code>RepeatMode.FIXED_RATE</code> task does when it falls
+ * behind, for example when the server lags.
+ */
+public enum MissedRunPolicy {
+	/**
+	 * Skips the missed runs and continues with the next
+	 * run that is still in the future.
+	 */
+	SKIP,
+	/**
+	 * Makes up for every missed run, one after another,
+	 * until the task is back on schedule.
+	 */
+	CATCH_UP;
+}
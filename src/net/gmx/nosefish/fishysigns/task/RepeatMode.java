@@ -0,0 +1,16 @@
+package net.gmx.nosefish.fishysigns.task;
+
+/**
+ * How the next run of a repeating <code>FishyTask</code> is scheduled.
+ */
+public enum RepeatMode {
+	/**
+	 * Runs are one period apart, measured from when each run was due.
+	 * The run time of the task does not shift later runs.
+	 */
+	FIXED_RATE,
+	/**
+	 * The next run is one period after the previous run has finished.
+	 */
+	FIXED_DELAY;
+}
@@ -0,0 +1,32 @@
+package net.gmx.nosefish.fishysigns.task;
+
+import java.util.concurrent.TimeUnit;
+
+import net.gmx.nosefish.fishysigns.Log;
+
+/**
+ * Logs the queue sizes and task timings of a <code>FishyTaskRunner</code>
+ * at a fixed interval. The timings are reset after each line, so every
+ * line covers one interval.
+ */
+final class StatisticsLogTask extends FishyTask {
+	private final FishyTaskRunner runner;
+
+	StatisticsLogTask(FishyTaskRunner runner, long intervalSeconds) {
+		this.runner = runner;
+		this.setThreadsafe_IPromiseThatThisDoesNotTouchTheWorld();
+		this.setTimeDelay(intervalSeconds, TimeUnit.SECONDS);
+		this.setTimeRepeatDelay(intervalSeconds, TimeUnit.SECONDS);
+	}
+
+	@Override
+	public void doStuff() {
+		TaskStatistics statistics = runner.getWorkerStatistics();
+		Log.get().logInfo("FishyTaskRunner: serverQueue=" + runner.getServerQueueSize()
+				+ ", workerQueue=" + runner.getWorkerQueueDepth()
+				+ ", activeWorkers=" + runner.getWorkerActiveCount()
+				+ ", workers=" + runner.getWorkerPoolSize()
+				+ ", " + statistics);
+		statistics.reset();
+	}
+}
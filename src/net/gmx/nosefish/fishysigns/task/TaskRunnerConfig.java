@@ -0,0 +1,309 @@
+package net.gmx.nosefish.fishysigns.task;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import net.gmx.nosefish.fishysigns.Log;
+
+/**
+ * Settings of the <code>FishyTaskRunner</code>'s thread pools, the tick
+ * pipeline, the activation lanes and the block polling,
+ * read from a properties file. Immutable.
+ * <p>
+ * Missing or invalid values are replaced by their defaults.
+ * If the file does not exist, it is created with the defaults.
+ */
+public final class TaskRunnerConfig {
+	public static final String WORKER_THREADS = "workers.threads";
+	public static final String WORKER_MAX_THREADS = "workers.maxThreads";
+	public static final String WORKER_QUEUE_SIZE = "workers.queueSize";
+	public static final String WORKER_REJECTION_POLICY = "workers.rejectionPolicy";
+	public static final String WORKER_THREAD_NAME_PREFIX = "workers.threadNamePrefix";
+	public static final String WORKER_THREAD_PRIORITY = "workers.threadPriority";
+	public static final String WORKER_VIRTUAL_THREADS = "workers.virtualThreads";
+	public static final String SERVER_TICK_BUDGET_MILLIS = "server.tickBudgetMillis";
+	public static final String PIPELINE_JOIN_TIMEOUT_MILLIS = "pipeline.joinTimeoutMillis";
+	public static final String ACTIVATION_LANES = "activation.lanes";
+	public static final String POLLING_SCAN_BUDGET_MICROS = "polling.scanBudgetMicros";
+	public static final String STATS_LOG_INTERVAL_SECONDS = "stats.logIntervalSeconds";
+
+	/**
+	 * Upper limit for the number of activation lanes.
+	 */
+	public static final int MAX_ACTIVATION_LANES = 16;
+
+	/**
+	 * What to do with a threadsafe task when all workers
+	 * are busy and the queue is full.
+	 */
+	public static enum RejectionPolicy {
+		/** reject the task; it will be cancelled and logged */
+		ABORT,
+		/**
+		 * run the task in the submitting thread. That may be the
+		 * server thread or the timer thread of the task runner, so
+		 * a threadsafe task can end up blocking the server or
+		 * delaying other tasks.
+		 */
+		CALLER_RUNS,
+		/** drop the task silently */
+		DISCARD;
+
+		RejectedExecutionHandler createHandler() {
+			switch (this) {
+			case CALLER_RUNS:
+				return new ThreadPoolExecutor.CallerRunsPolicy();
+			case DISCARD:
+				return new ThreadPoolExecutor.DiscardPolicy();
+			default:
+				return new ThreadPoolExecutor.AbortPolicy();
+			}
+		}
+	}
+
+	private final int workerThreads;
+	private final int workerMaxThreads;
+	private final int workerQueueSize;
+	private final RejectionPolicy rejectionPolicy;
+	private final String threadNamePrefix;
+	private final int threadPriority;
+	private final boolean virtualThreads;
+	private final long serverTickBudgetMillis;
+	private final long pipelineJoinTimeoutMillis;
+	private final int activationLanes;
+	private final long pollingScanBudgetMicros;
+	private final long statsLogIntervalSeconds;
+
+	private TaskRunnerConfig(Properties props) {
+		this.workerThreads = getInt(props, WORKER_THREADS, 8, 1, 256);
+		this.workerMaxThreads = getInt(props, WORKER_MAX_THREADS, 16, workerThreads, 256);
+		this.workerQueueSize = getInt(props, WORKER_QUEUE_SIZE, 0, 0, Integer.MAX_VALUE);
+		this.rejectionPolicy = getPolicy(props, WORKER_REJECTION_POLICY, RejectionPolicy.ABORT);
+		this.threadNamePrefix = props.getProperty(WORKER_THREAD_NAME_PREFIX, "FishySigns-worker-").trim();
+		this.threadPriority = getInt(props, WORKER_THREAD_PRIORITY, Thread.NORM_PRIORITY,
+		                             Thread.MIN_PRIORITY, Thread.MAX_PRIORITY);
+		this.virtualThreads = getBoolean(props, WORKER_VIRTUAL_THREADS, false);
+		this.serverTickBudgetMillis = getInt(props, SERVER_TICK_BUDGET_MILLIS, 10, 0, 1000);
+		this.pipelineJoinTimeoutMillis = getInt(props, PIPELINE_JOIN_TIMEOUT_MILLIS, 5, 0, 50);
+		// one lane per core, but not more than 4 unless configured
+		int defaultLanes = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+		this.activationLanes = getInt(props, ACTIVATION_LANES, defaultLanes, 1, MAX_ACTIVATION_LANES);
+		this.pollingScanBudgetMicros = getInt(props, POLLING_SCAN_BUDGET_MICROS, 0, 0, 50000);
+		this.statsLogIntervalSeconds = getInt(props, STATS_LOG_INTERVAL_SECONDS, 0, 0, 86400);
+	}
+
+	/**
+	 * Gets the default settings.
+	 *
+	 * @return the defaults
+	 */
+	public static TaskRunnerConfig defaults() {
+		return new TaskRunnerConfig(new Properties());
+	}
+
+	/**
+	 * Reads the settings from a file. Creates the file with
+	 * the default settings if it does not exist.
+	 *
+	 * @param file
+	 * @return the settings
+	 */
+	public static TaskRunnerConfig load(File file) {
+		Properties props = new Properties();
+		if (! file.exists()) {
+			TaskRunnerConfig config = defaults();
+			config.save(file);
+			return config;
+		}
+		InputStream in = null;
+		try {
+			in = new FileInputStream(file);
+			props.load(in);
+		} catch (IOException e) {
+			Log.get().logWarning("Could not read " + file.getPath() + ", using defaults: " + e.getMessage());
+			props.clear();
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					// ignore
+				}
+			}
+		}
+		return new TaskRunnerConfig(props);
+	}
+
+	private void save(File file) {
+		Properties props = new Properties();
+		props.setProperty(WORKER_THREADS, String.valueOf(workerThreads));
+		props.setProperty(WORKER_MAX_THREADS, String.valueOf(workerMaxThreads));
+		props.setProperty(WORKER_QUEUE_SIZE, String.valueOf(workerQueueSize));
+		props.setProperty(WORKER_REJECTION_POLICY, rejectionPolicy.name());
+		props.setProperty(WORKER_THREAD_NAME_PREFIX, threadNamePrefix);
+		props.setProperty(WORKER_THREAD_PRIORITY, String.valueOf(threadPriority));
+		props.setProperty(WORKER_VIRTUAL_THREADS, String.valueOf(virtualThreads));
+		props.setProperty(SERVER_TICK_BUDGET_MILLIS, String.valueOf(serverTickBudgetMillis));
+		props.setProperty(PIPELINE_JOIN_TIMEOUT_MILLIS, String.valueOf(pipelineJoinTimeoutMillis));
+		props.setProperty(ACTIVATION_LANES, String.valueOf(activationLanes));
+		props.setProperty(POLLING_SCAN_BUDGET_MICROS, String.valueOf(pollingScanBudgetMicros));
+		props.setProperty(STATS_LOG_INTERVAL_SECONDS, String.valueOf(statsLogIntervalSeconds));
+		OutputStream out = null;
+		try {
+			File dir = file.getParentFile();
+			if (dir != null && ! dir.exists()) {
+				dir.mkdirs();
+			}
+			out = new FileOutputStream(file);
+			props.store(out, "FishySigns task runner settings. "
+					+ WORKER_QUEUE_SIZE + "=0 means unbounded; then "
+					+ WORKER_MAX_THREADS + " has no effect. "
+					+ WORKER_REJECTION_POLICY + ": ABORT, CALLER_RUNS or DISCARD; CALLER_RUNS may run tasks in the server thread. "
+					+ WORKER_VIRTUAL_THREADS + "=true runs threadsafe tasks in virtual threads (Java 21+). "
+					+ SERVER_TICK_BUDGET_MILLIS + "=0 runs all server thread tasks on every tick. "
+					+ PIPELINE_JOIN_TIMEOUT_MILLIS + ": how long the server thread waits for the last tick's activations. "
+					+ ACTIVATION_LANES + ": 1 to " + MAX_ACTIVATION_LANES + " threads for sign activations. "
+					+ POLLING_SCAN_BUDGET_MICROS + ": time per tick for polling watched blocks, 0 scans all on every tick. "
+					+ STATS_LOG_INTERVAL_SECONDS + ": how often to log the task runner's queues and timings, 0 for never.");
+		} catch (IOException e) {
+			Log.get().logWarning("Could not write " + file.getPath() + ": " + e.getMessage());
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+					// ignore
+				}
+			}
+		}
+	}
+
+	private static int getInt(Properties props, String key, int defaultValue, int min, int max) {
+		String value = props.getProperty(key);
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			int parsed = Integer.parseInt(value.trim());
+			if (parsed >= min && parsed <= max) {
+				return parsed;
+			}
+		} catch (NumberFormatException e) {
+			// fall through
+		}
+		Log.get().logWarning("Invalid value for " + key + ": " + value
+				+ ", expected " + min + " to " + max + ". Using " + defaultValue + ".");
+		return defaultValue;
+	}
+
+	private static boolean getBoolean(Properties props, String key, boolean defaultValue) {
+		String value = props.getProperty(key);
+		if (value == null) {
+			return defaultValue;
+		}
+		value = value.trim();
+		if ("true".equalsIgnoreCase(value)) {
+			return true;
+		}
+		if ("false".equalsIgnoreCase(value)) {
+			return false;
+		}
+		Log.get().logWarning("Invalid value for " + key + ": " + value + ". Using " + defaultValue + ".");
+		return defaultValue;
+	}
+
+	private static RejectionPolicy getPolicy(Properties props, String key, RejectionPolicy defaultValue) {
+		String value = props.getProperty(key);
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			return RejectionPolicy.valueOf(value.trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			Log.get().logWarning("Invalid value for " + key + ": " + value + ". Using " + defaultValue + ".");
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * @return the number of worker threads kept alive
+	 */
+	public int getWorkerThreads() {
+		return workerThreads;
+	}
+
+	/**
+	 * @return the number of worker threads when the queue is full
+	 */
+	public int getWorkerMaxThreads() {
+		return workerMaxThreads;
+	}
+
+	/**
+	 * @return the capacity of the worker queue, 0 for unbounded
+	 */
+	public int getWorkerQueueSize() {
+		return workerQueueSize;
+	}
+
+	public RejectionPolicy getRejectionPolicy() {
+		return rejectionPolicy;
+	}
+
+	public String getThreadNamePrefix() {
+		return threadNamePrefix;
+	}
+
+	public int getThreadPriority() {
+		return threadPriority;
+	}
+
+	/**
+	 * @return <code>true</code> if threadsafe tasks should run in virtual threads
+	 */
+	public boolean isVirtualThreads() {
+		return virtualThreads;
+	}
+
+	/**
+	 * @return the time per tick for running tasks in the server thread, 0 for no limit
+	 */
+	public long getServerTickBudgetMillis() {
+		return serverTickBudgetMillis;
+	}
+
+	/**
+	 * @return the time the server thread may wait for the activations of the previous tick
+	 */
+	public long getPipelineJoinTimeoutMillis() {
+		return pipelineJoinTimeoutMillis;
+	}
+
+	/**
+	 * @return the number of threads of the <code>ActivationExecutor</code>
+	 */
+	public int getActivationLanes() {
+		return activationLanes;
+	}
+
+	/**
+	 * @return the time per tick for polling watched blocks, 0 for no limit
+	 */
+	public long getPollingScanBudgetMicros() {
+		return pollingScanBudgetMicros;
+	}
+
+	/**
+	 * @return the interval for logging the task runner's statistics, 0 for never
+	 */
+	public long getStatsLogIntervalSeconds() {
+		return statsLogIntervalSeconds;
+	}
+}
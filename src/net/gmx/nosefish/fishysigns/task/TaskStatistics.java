@@ -0,0 +1,105 @@
+package net.gmx.nosefish.fishysigns.task;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Live statistics of the tasks run by a pool: how many have completed,
+ * how long they waited in the queue, and how long they ran.
+ * Thread-safe, does not lock.
+ */
+public final class TaskStatistics {
+	private final AtomicLong completed = new AtomicLong(0L);
+	private final AtomicLong totalWaitNanos = new AtomicLong(0L);
+	private final AtomicLong maxWaitNanos = new AtomicLong(0L);
+	private final AtomicLong totalRunNanos = new AtomicLong(0L);
+	private final AtomicLong maxRunNanos = new AtomicLong(0L);
+
+	/**
+	 * Records a completed task.
+	 *
+	 * @param waitNanos
+	 *     time between submission and start
+	 * @param runNanos
+	 *     time between start and end
+	 */
+	void record(long waitNanos, long runNanos) {
+		completed.incrementAndGet();
+		totalWaitNanos.addAndGet(waitNanos);
+		totalRunNanos.addAndGet(runNanos);
+		raise(maxWaitNanos, waitNanos);
+		raise(maxRunNanos, runNanos);
+	}
+
+	/**
+	 * @return the number of tasks that have completed
+	 */
+	public long getCompletedCount() {
+		return completed.get();
+	}
+
+	/**
+	 * @param unit
+	 * @return the average time a task waited in the queue
+	 */
+	public long getAverageWait(TimeUnit unit) {
+		return unit.convert(average(totalWaitNanos), TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * @param unit
+	 * @return the longest time a task waited in the queue
+	 */
+	public long getMaxWait(TimeUnit unit) {
+		return unit.convert(maxWaitNanos.get(), TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * @param unit
+	 * @return the average run time of a task
+	 */
+	public long getAverageRunTime(TimeUnit unit) {
+		return unit.convert(average(totalRunNanos), TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * @param unit
+	 * @return the longest run time of a task
+	 */
+	public long getMaxRunTime(TimeUnit unit) {
+		return unit.convert(maxRunNanos.get(), TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Starts over. Tasks that complete concurrently
+	 * may be counted only partly.
+	 */
+	public void reset() {
+		completed.set(0L);
+		totalWaitNanos.set(0L);
+		maxWaitNanos.set(0L);
+		totalRunNanos.set(0L);
+		maxRunNanos.set(0L);
+	}
+
+	@Override
+	public String toString() {
+		return "completed=" + getCompletedCount()
+				+ ", avgWait=" + getAverageWait(TimeUnit.MICROSECONDS) + "us"
+				+ ", maxWait=" + getMaxWait(TimeUnit.MICROSECONDS) + "us"
+				+ ", avgRun=" + getAverageRunTime(TimeUnit.MICROSECONDS) + "us"
+				+ ", maxRun=" + getMaxRunTime(TimeUnit.MICROSECONDS) + "us";
+	}
+
+	private long average(AtomicLong total) {
+		long count = completed.get();
+		return (count == 0L) ? 0L : total.get() / count;
+	}
+
+	private static void raise(AtomicLong max, long value) {
+		long current = max.get();
+		while (value > current && ! max.compareAndSet(current, value)) {
+			current = max.get();
+		}
+	}
+}
@@ -0,0 +1,259 @@
+package net.gmx.nosefish.fishysigns.task;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A hierarchical timing wheel indexed by server tick.
+ * <p>
+ * Elements are scheduled for an absolute target tick. Scheduling and
+ * cancelling are O(1), and each call to <code>advance</code> only looks at
+ * the buckets of the ticks that have passed. Nothing is compared or
+ * recomputed while the elements wait.
+ * <p>
+ * The wheel has <code>LEVELS</code> levels of <code>SLOTS</code> buckets each.
+ * Level 0 holds elements that are due within the next <code>SLOTS</code> ticks,
+ * one bucket per tick. Each higher level covers <code>SLOTS</code> times the
+ * range of the level below; its buckets are moved down a level when the
+ * wheel reaches them. Elements that are due even later wait in the
+ * last bucket of the top level and are re-sorted when it comes around.
+ * <p>
+ * <code>schedule</code> may be called from any thread. All other methods must
+ * be called from the single thread that owns the wheel (the server thread).
+ *
+ * @param <E> the type of elements
+ */
+public class TickTimingWheel<E> {
+	private static final int SLOT_BITS = 6;
+	private static final int SLOTS = 1 << SLOT_BITS;
+	private static final int SLOT_MASK = SLOTS - 1;
+	private static final int LEVELS = 4;
+	// the furthest distance the wheel can represent exactly
+	private static final long MAX_SPAN = (1L << (SLOT_BITS * LEVELS)) - 1L;
+
+	// elements scheduled by other threads, sorted in on the next advance
+	private final ConcurrentLinkedQueue<Timeout<E>> inbox = new ConcurrentLinkedQueue<Timeout<E>>();
+	// buckets[level][slot] is the head of a linked list
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private final Timeout<E>[][] buckets = new Timeout[LEVELS][SLOTS];
+	private boolean started = false;
+	private long currentTick = 0L;
+	private int size = 0;
+
+	/**
+	 * Constructor. The wheel starts at the tick passed to the
+	 * first call of <code>advance</code>.
+	 */
+	public TickTimingWheel() {
+		// nothing to do
+	}
+
+	/**
+	 * Schedules an element. Thread-safe.
+	 *
+	 * @param element
+	 *     the element
+	 * @param targetTick
+	 *     the tick on which the element is due. If that tick has
+	 *     already passed, it will be due on the next <code>advance</code>.
+	 * @return
+	 *     a handle that can be used to cancel the timeout
+	 */
+	public Timeout<E> schedule(E element, long targetTick) {
+		if (element == null) {
+			throw new NullPointerException("TickTimingWheel does not permit null elements");
+		}
+		Timeout<E> timeout = new Timeout<E>(element, targetTick);
+		inbox.offer(timeout);
+		return timeout;
+	}
+
+	/**
+	 * Advances the wheel to <code>nowTick</code> and collects all
+	 * elements that are due by then. Cancelled elements are dropped.
+	 *
+	 * @param nowTick
+	 *     the current tick
+	 * @param expired
+	 *     receives the due elements, in the order of their target ticks
+	 */
+	public void advance(long nowTick, Collection<? super E> expired) {
+		if (! started) {
+			currentTick = nowTick - 1L;
+			started = true;
+		}
+		drainInbox(expired);
+		while (currentTick < nowTick) {
+			++currentTick;
+			cascade();
+			Timeout<E> head = buckets[0][(int)(currentTick & SLOT_MASK)];
+			buckets[0][(int)(currentTick & SLOT_MASK)] = null;
+			expire(head, expired);
+		}
+	}
+
+	/**
+	 * Removes all elements from the wheel.
+	 *
+	 * @param removed
+	 *     receives the elements that were not cancelled
+	 */
+	public void clear(Collection<? super E> removed) {
+		for (int level = 0; level < LEVELS; ++level) {
+			for (int slot = 0; slot < SLOTS; ++slot) {
+				Timeout<E> head = buckets[level][slot];
+				buckets[level][slot] = null;
+				expire(head, removed);
+			}
+		}
+		Timeout<E> timeout;
+		while ((timeout = inbox.poll()) != null) {
+			if (! timeout.isCancelled()) {
+				removed.add(timeout.element);
+			}
+		}
+		size = 0;
+	}
+
+	/**
+	 * Gets the number of elements in the wheel, not counting those
+	 * that were scheduled since the last <code>advance</code>.
+	 *
+	 * @return the number of elements
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Gets the tick the wheel has advanced to.
+	 *
+	 * @return the tick
+	 */
+	public long getCurrentTick() {
+		return currentTick;
+	}
+
+	private void drainInbox(Collection<? super E> expired) {
+		Timeout<E> timeout;
+		while ((timeout = inbox.poll()) != null) {
+			if (timeout.isCancelled()) {
+				continue;
+			}
+			if (timeout.targetTick <= currentTick) {
+				expired.add(timeout.element);
+			} else {
+				insert(timeout);
+			}
+		}
+	}
+
+	/**
+	 * Moves the buckets of the higher levels that the wheel has
+	 * just reached down to the level below.
+	 */
+	private void cascade() {
+		for (int level = 1; level < LEVELS; ++level) {
+			int shift = SLOT_BITS * level;
+			if ((currentTick & ((1L << shift) - 1L)) != 0L) {
+				// the lower level has not wrapped around
+				return;
+			}
+			int slot = (int)((currentTick >>> shift) & SLOT_MASK);
+			Timeout<E> timeout = buckets[level][slot];
+			buckets[level][slot] = null;
+			while (timeout != null) {
+				Timeout<E> next = timeout.next;
+				timeout.next = null;
+				--size;
+				if (! timeout.isCancelled()) {
+					insert(timeout);
+				}
+				timeout = next;
+			}
+		}
+	}
+
+	/**
+	 * Puts a timeout into the bucket for its target tick.
+	 * The target tick must be later than the current tick.
+	 */
+	private void insert(Timeout<E> timeout) {
+		long delta = timeout.targetTick - currentTick;
+		long placementTick = (delta > MAX_SPAN) ? currentTick + MAX_SPAN : timeout.targetTick;
+		delta = placementTick - currentTick;
+		int level = 0;
+		while (level < LEVELS - 1 && delta >= (1L << (SLOT_BITS * (level + 1)))) {
+			++level;
+		}
+		int slot = (int)((placementTick >>> (SLOT_BITS * level)) & SLOT_MASK);
+		Timeout<E> head = buckets[level][slot];
+		timeout.next = head;
+		buckets[level][slot] = timeout;
+		++size;
+	}
+
+	private void expire(Timeout<E> timeout, Collection<? super E> expired) {
+		while (timeout != null) {
+			Timeout<E> next = timeout.next;
+			timeout.next = null;
+			--size;
+			if (! timeout.isCancelled()) {
+				if (timeout.targetTick > currentTick) {
+					// re-sort, can happen to elements that were too far in the future
+					insert(timeout);
+				} else {
+					expired.add(timeout.element);
+				}
+			}
+			timeout = next;
+		}
+	}
+
+	/**
+	 * Handle for a scheduled element.
+	 *
+	 * @param <E> the type of element
+	 */
+	public static final class Timeout<E> {
+		private final E element;
+		private final long targetTick;
+		private volatile boolean cancelled = false;
+		// bucket link, only touched by the owner thread
+		private Timeout<E> next;
+
+		private Timeout(E element, long targetTick) {
+			this.element = element;
+			this.targetTick = targetTick;
+		}
+
+		/**
+		 * Cancels the timeout. The element will not be returned
+		 * by <code>advance</code>. Thread-safe.
+		 */
+		public void cancel() {
+			cancelled = true;
+		}
+
+		/**
+		 * @return <code>true</code> if the timeout was cancelled
+		 */
+		public boolean isCancelled() {
+			return cancelled;
+		}
+
+		/**
+		 * @return the element
+		 */
+		public E getElement() {
+			return element;
+		}
+
+		/**
+		 * @return the tick on which the element is due
+		 */
+		public long getTargetTick() {
+			return targetTick;
+		}
+	}
+}
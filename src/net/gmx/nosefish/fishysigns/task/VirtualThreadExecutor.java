@@ -0,0 +1,105 @@
+package net.gmx.nosefish.fishysigns.task;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.gmx.nosefish.fishysigns.Log;
+
+/**
+ * Runs each task in a new virtual thread, recording its
+ * wait and run time in a <code>TaskStatistics</code>.
+ * <p>
+ * Virtual threads need Java 21 or later. FishySigns is built for
+ * older versions, so the executor is looked up by reflection.
+ * <p>
+ * A virtual thread that blocks frees its carrier thread, unless it
+ * holds a monitor. Tasks run here should therefore wait with
+ * <code>java.util.concurrent</code> locks or <code>LockSupport</code>,
+ * like <code>ServerTicker.awaitTick</code> does, and not inside
+ * <code>synchronized</code>.
+ */
+final class VirtualThreadExecutor {
+	private final ExecutorService executor;
+	private final TaskStatistics statistics = new TaskStatistics();
+	private final AtomicInteger activeCount = new AtomicInteger(0);
+
+	private VirtualThreadExecutor(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Creates an executor if the JVM supports virtual threads.
+	 *
+	 * @param namePrefix
+	 *     prefix of the thread names
+	 * @return
+	 *     the executor, or <code>null</code> if virtual threads are not available
+	 */
+	static VirtualThreadExecutor create(String namePrefix) {
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder$OfVirtual");
+			Method name = builderClass.getMethod("name", String.class, long.class);
+			builder = name.invoke(builder, namePrefix, Long.valueOf(0L));
+			ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+			Method newExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+			return new VirtualThreadExecutor((ExecutorService) newExecutor.invoke(null, factory));
+		} catch (Exception e) {
+			Log.get().logWarning("Virtual threads are not available in this JVM (Java 21 or later is required). "
+					+ "Using the worker pool instead.");
+			return null;
+		}
+	}
+
+	/**
+	 * Runs the task in a new virtual thread.
+	 *
+	 * @param task
+	 */
+	void execute(final Runnable task) {
+		final long submitNanos = System.nanoTime();
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				long start = System.nanoTime();
+				activeCount.incrementAndGet();
+				try {
+					task.run();
+				} finally {
+					activeCount.decrementAndGet();
+					statistics.record(start - submitNanos, System.nanoTime() - start);
+				}
+			}
+		});
+	}
+
+	/**
+	 * @return the number of tasks that are running
+	 */
+	int getActiveCount() {
+		return activeCount.get();
+	}
+
+	/**
+	 * @return the statistics of the tasks run by this executor
+	 */
+	TaskStatistics getStatistics() {
+		return statistics;
+	}
+
+	void shutdown() {
+		executor.shutdown();
+	}
+
+	boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		return executor.awaitTermination(timeout, unit);
+	}
+
+	void shutdownNow() {
+		executor.shutdownNow();
+	}
+}
@@ -1,7 +1,6 @@
 package net.gmx.nosefish.fishysigns.watcher;
 
-import java.util.Set;
-
+import net.canarymod.api.world.blocks.Block;
 import net.canarymod.api.world.blocks.BlockType;
 import net.canarymod.hook.HookHandler;
 import net.canarymod.hook.world.BlockUpdateHook;
@@ -34,14 +33,16 @@ public class BlockDestructionWatcher extends BlockLocationWatcher {
 			// nothing was destroyed
 			return;
 		}
-		FishyLocationInt location = new FishyLocationInt(hook.getBlock().getLocation());
-		if (blockLocationIndex.containsKey(location)) {
-			ActivatorBlockDestroyed activator = new ActivatorBlockDestroyed(location, 
-					new FishyBlockState(hook.getBlock()));
-			ActivationTask task = 
-					new ActivationTask(activator);
-			task.submit();
+		Block block = hook.getBlock();
+		if (! isWatched(block)) {
+			return;
 		}
+		FishyLocationInt location = new FishyLocationInt(block.getLocation());
+		ActivatorBlockDestroyed activator = new ActivatorBlockDestroyed(location, 
+				new FishyBlockState(block));
+		ActivationTask task = 
+				new ActivationTask(activator);
+		task.submit();
 	}
 	
 	public static BlockDestructionWatcher getInstance() {
@@ -63,14 +64,10 @@ public class BlockDestructionWatcher extends BlockLocationWatcher {
 		
 		@Override
 		public void doStuff() {
-			Set<Long> idSet = blockLocationIndex.get(activator.getLocation());
-			if (idSet == null || idSet.isEmpty()) {
+			long[] toActivate = getWatchers(activator.getLocation());
+			if (toActivate == null) {
 				return;
 			}
-			Long[] toActivate = null;
-			synchronized(idSet) {
-				toActivate = idSet.toArray(new Long[idSet.size()]);
-			}
 			ActivationManager.getInstance().activateAll(activator, toActivate);
 		}
 	}
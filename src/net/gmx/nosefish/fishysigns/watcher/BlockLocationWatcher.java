@@ -1,51 +1,211 @@
 package net.gmx.nosefish.fishysigns.watcher;
 
-import net.gmx.nosefish.fishylib.datastructures.ConcurrentMapWithTreeSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.canarymod.api.world.World;
+import net.canarymod.api.world.blocks.Block;
 import net.gmx.nosefish.fishylib.worldmath.FishyLocationInt;
+import net.gmx.nosefish.fishylib.worldmath.FishyWorld;
+import net.gmx.nosefish.fishysigns.datastructures.BlockIdIndex;
+import net.gmx.nosefish.fishysigns.datastructures.ConcurrentLongMap;
+import net.gmx.nosefish.fishysigns.world.BlockKey;
 
+/**
+ * Base class of the watchers that are interested in block locations.
+ * <p>
+ * The registered ids are kept in one <code>BlockIdIndex</code> per world,
+ * keyed by the packed block coordinates (see <code>BlockKey</code>).
+ * The hooks look up a block with the <code>Block</code> methods below,
+ * which neither lock nor allocate; most unwatched blocks are rejected
+ * by the per-chunk filter of the world's index.
+ */
 public abstract class BlockLocationWatcher implements IFishyWatcher{
+	// copy on write, shared by all watchers, so that the hooks can read it without locking
+	private static volatile Map<World, FishyWorld> fishyWorlds = new IdentityHashMap<World, FishyWorld>();
+
 	protected boolean enabled = false;
-	
+
+	// world -> packed block coordinates -> ids
+	private final ConcurrentHashMap<FishyWorld, BlockIdIndex> worldIndexes =
+			new ConcurrentHashMap<FishyWorld, BlockIdIndex>(4);
+
 	/**
-	 * The set is a <code>Collections.synchronizedSet</code>.
-	 * When iterating over it, you must synchronize on it!
+	 * The locations of each id, for <code>removeFromIndex</code>.
+	 * Modified while holding the lock on this map.
 	 */
-	protected final ConcurrentMapWithTreeSet<FishyLocationInt, Long> blockLocationIndex =
-			new ConcurrentMapWithTreeSet<FishyLocationInt, Long>();
+	private final ConcurrentLongMap<List<FishyLocationInt>> locationsOfId =
+			new ConcurrentLongMap<List<FishyLocationInt>>();
 
 	/**
 	 * Registers an <code>Activatable</code> with a block location
 	 * to be handled by the watcher.
-	 * 
+	 *
 	 * @param activatable
 	 * @param location
 	 */
 	public void register(Long activatableID, FishyLocationInt location) {
-		blockLocationIndex.put(location, activatableID);
+		synchronized(locationsOfId) {
+			BlockIdIndex index = worldIndexes.get(location.getWorld());
+			if (index == null) {
+				index = new BlockIdIndex();
+				worldIndexes.put(location.getWorld(), index);
+			}
+			if (index.put(BlockKey.pack(location), activatableID)) {
+				List<FishyLocationInt> locations = locationsOfId.get(activatableID);
+				if (locations == null) {
+					locations = new ArrayList<FishyLocationInt>(1);
+					locationsOfId.put(activatableID, locations);
+				}
+				locations.add(location);
+			}
+		}
 	}
-	
-	
+
+
 	/**
 	 * Removes a registered <code>Activatable</code> from
 	 * this watcher.
-	 * 
+	 *
 	 * @param activatable
 	 * @param location
 	 */
 	public void remove(Long activatableID) {
-		blockLocationIndex.removeValue(activatableID);
+		removeFromIndex(activatableID);
+	}
+
+	/**
+	 * Removes an <code>Activatable</code> from the index.
+	 *
+	 * @param activatableID
+	 * @return the locations it was registered with
+	 */
+	protected List<FishyLocationInt> removeFromIndex(long activatableID) {
+		synchronized(locationsOfId) {
+			List<FishyLocationInt> removed = locationsOfId.remove(activatableID);
+			if (removed == null) {
+				return Collections.emptyList();
+			}
+			for (FishyLocationInt location : removed) {
+				BlockIdIndex index = worldIndexes.get(location.getWorld());
+				if (index != null) {
+					index.remove(BlockKey.pack(location), activatableID);
+				}
+			}
+			return removed;
+		}
+	}
+
+	/**
+	 * Gets the ids registered for a location. Does not lock, does not allocate.
+	 *
+	 * @param location
+	 * @return
+	 *     the sorted ids, or <code>null</code> if there are none.
+	 *     The array is shared and must not be modified.
+	 */
+	protected long[] getWatchers(FishyLocationInt location) {
+		BlockIdIndex index = worldIndexes.get(location.getWorld());
+		return (index == null) ? null : index.get(BlockKey.pack(location));
+	}
+
+	/**
+	 * Checks if a location is watched. Does not lock, does not allocate.
+	 *
+	 * @param location
+	 * @return <code>true</code> if at least one id is registered for the location
+	 */
+	protected boolean isWatched(FishyLocationInt location) {
+		return getWatchers(location) != null;
 	}
-	
+
+	/**
+	 * Gets the ids registered for a block. For use in hooks:
+	 * does not lock, and only allocates the first time a
+	 * block in a world is seen.
+	 *
+	 * @param block
+	 * @return
+	 *     the sorted ids, or <code>null</code> if there are none.
+	 *     The array is shared and must not be modified.
+	 */
+	protected long[] getWatchers(Block block) {
+		return getWatchers(getFishyWorld(block), block.getX(), block.getY(), block.getZ());
+	}
+
+	/**
+	 * Gets the ids registered for a block. Does not lock, does not allocate.
+	 *
+	 * @param world
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @return
+	 *     the sorted ids, or <code>null</code> if there are none.
+	 *     The array is shared and must not be modified.
+	 */
+	protected long[] getWatchers(FishyWorld world, int x, int y, int z) {
+		BlockIdIndex index = worldIndexes.get(world);
+		if (index == null || ! index.mightContain(x, y, z)) {
+			return null;
+		}
+		return index.get(BlockKey.pack(x, y, z));
+	}
+
+	/**
+	 * Checks if a block is watched. For use in hooks, see <code>getWatchers(Block)</code>.
+	 *
+	 * @param block
+	 * @return <code>true</code> if at least one id is registered for the block
+	 */
+	protected boolean isWatched(Block block) {
+		return getWatchers(block) != null;
+	}
+
+	/**
+	 * Gets the <code>FishyWorld</code> of a block. Only allocates
+	 * the first time a block in a world is seen. If two threads
+	 * race to add the same world, one of the copies is lost, which
+	 * only costs another lookup later.
+	 *
+	 * @param block
+	 * @return the block's world
+	 */
+	protected static FishyWorld getFishyWorld(Block block) {
+		World world = block.getWorld();
+		FishyWorld fishyWorld = fishyWorlds.get(world);
+		if (fishyWorld == null) {
+			fishyWorld = new FishyLocationInt(block.getLocation()).getWorld();
+			Map<World, FishyWorld> copy = new IdentityHashMap<World, FishyWorld>(fishyWorlds);
+			copy.put(world, fishyWorld);
+			fishyWorlds = copy;
+		}
+		return fishyWorld;
+	}
+
 	@Override
 	public void enable() {
-		this.blockLocationIndex.clear();
+		clearIndex();
 		enabled = true;
 	}
 
 	@Override
 	public void disable() {
 		enabled = false;
-		this.blockLocationIndex.clear();
+		clearIndex();
+		// don't keep unloaded worlds alive
+		fishyWorlds = new IdentityHashMap<World, FishyWorld>();
+	}
+
+	private void clearIndex() {
+		synchronized(locationsOfId) {
+			this.worldIndexes.clear();
+			this.locationsOfId.clear();
+		}
 	}
 
 }
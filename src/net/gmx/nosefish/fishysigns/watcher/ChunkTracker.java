@@ -9,6 +9,7 @@ import java.util.concurrent.ConcurrentMap;
 import net.gmx.nosefish.fishylib.worldmath.FishyChunk;
 import net.gmx.nosefish.fishylib.worldmath.FishyLocationInt;
 import net.gmx.nosefish.fishylib.worldmath.FishyVectorInt;
+import net.gmx.nosefish.fishysigns.datastructures.LocationIdIndex;
 import net.gmx.nosefish.fishysigns.plugin.FishySigns;
 import net.gmx.nosefish.fishysigns.plugin.engine.ActivationManager;
 import net.gmx.nosefish.fishysigns.plugin.engine.FishySignFinderTask;
@@ -49,6 +50,8 @@ public class ChunkTracker extends BlockLocationWatcher {
 
 	// the Boolean is true when all surrounding chunks are loaded, too
 	private ConcurrentMap<FishyChunk, Boolean> loadedChunks;
+	// chunk -> ids to notify when it is unloaded
+	private final LocationIdIndex<FishyChunk> chunkIndex = new LocationIdIndex<FishyChunk>();
 	
 	public static ChunkTracker getInstance() {
 		return instance;
@@ -184,12 +187,13 @@ public class ChunkTracker extends BlockLocationWatcher {
 	@Override
 	public void disable() {
 		super.disable();
+		chunkIndex.clear();
 		loadedChunks.clear();
 	}
 	
 	
 	public void register(Long id, FishyLocationInt location) {
-		blockLocationIndex.put(FishyChunk.getChunkContaining(location), id);
+		chunkIndex.put(FishyChunk.getChunkContaining(location), id);
 	}
 	
 	public void remove(Long id) {
@@ -214,18 +218,12 @@ public class ChunkTracker extends BlockLocationWatcher {
 		@Override
 		public void doStuff() {
 			for (FishyChunk chunk: chunks) {
-				Set<Long> idSet = blockLocationIndex.get(chunk);
-				if (idSet == null || idSet.isEmpty()) {
-					return;
-				}
-				Long[] toActivate = null;
-				synchronized(idSet) {
-					toActivate = idSet.toArray(new Long[idSet.size()]);
-				}
-				if (toActivate != null) {
-					ActivationManager.getInstance().activateAll(
-							new ActivatorChunkUnloaded(chunk), toActivate);
+				long[] toActivate = chunkIndex.get(chunk);
+				if (toActivate == null) {
+					continue;
 				}
+				ActivationManager.getInstance().activateAll(
+						new ActivatorChunkUnloaded(chunk), toActivate);
 			}
 		}
 	} // end of internal class
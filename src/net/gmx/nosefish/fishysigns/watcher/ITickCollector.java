@@ -0,0 +1,36 @@
+package net.gmx.nosefish.fishysigns.watcher;
+
+import net.gmx.nosefish.fishysigns.plugin.engine.ActivationBatch;
+
+/**
+ * A watcher that plugs into the collect phase of the <code>TickPipeline</code>.
+ * <p>
+ * On every tick, the pipeline calls <code>collect</code> of every registered
+ * collector in the server thread. The returned <code>Job</code>s are then
+ * prepared in parallel outside the server thread, and the resulting
+ * activations are dispatched. World writes made by the activations are
+ * applied in the server thread on the next tick.
+ */
+public interface ITickCollector {
+	/**
+	 * Takes a snapshot of whatever has happened since the last call.
+	 * Called in the server thread, must return quickly.
+	 *
+	 * @param tick
+	 *     the current tick
+	 * @return
+	 *     the work for the dispatch phase, or <code>null</code> if there is nothing to do
+	 */
+	public Job collect(long tick);
+
+	/**
+	 * Turns a snapshot into activations. Runs outside the server thread,
+	 * in parallel with the jobs of other collectors.
+	 */
+	public static interface Job {
+		/**
+		 * @return the <code>Activatable</code> ids and their <code>Activator</code>s
+		 */
+		public ActivationBatch prepare();
+	}
+}
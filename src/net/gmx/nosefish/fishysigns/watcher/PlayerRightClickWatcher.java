@@ -1,7 +1,5 @@
 package net.gmx.nosefish.fishysigns.watcher;
 
-import java.util.Set;
-
 import net.canarymod.api.world.blocks.Block;
 import net.canarymod.hook.HookHandler;
 import net.canarymod.hook.player.BlockRightClickHook;
@@ -31,6 +29,9 @@ public class PlayerRightClickWatcher extends BlockLocationWatcher{
 			return;
 		}
 		Block block = hook.getBlockClicked();
+		if (! isWatched(block)) {
+			return;
+		}
 		String playerName = hook.getPlayer().getName();
 		FishyTask activate = new ActivationTask(new FishyLocationBlockState(block), playerName);
 		activate.submit();
@@ -53,14 +54,10 @@ public class PlayerRightClickWatcher extends BlockLocationWatcher{
 		
 		@Override
 		public void doStuff() {
-			Set<Long> idSet = blockLocationIndex.get(blockState.getLocation());
+			long[] idSet = getWatchers(blockState.getLocation());
 			if (idSet != null) {
 				IActivator activator = new ActivatorPlayerRightClick(playerName, blockState);
-				synchronized(idSet) {
-					for (long id : idSet) {
-						ActivationManager.getInstance().activate(id, activator);
-					}
-				}
+				ActivationManager.getInstance().activateAll(activator, idSet);
 			}
 		}
 	}// end of internal class
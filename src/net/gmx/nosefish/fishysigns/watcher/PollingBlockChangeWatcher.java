@@ -1,25 +1,23 @@
 package net.gmx.nosefish.fishysigns.watcher;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.TreeMap;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 
 import net.gmx.nosefish.fishylib.worldmath.FishyChunk;
 import net.gmx.nosefish.fishylib.worldmath.FishyLocationInt;
+import net.canarymod.api.world.Chunk;
 import net.canarymod.api.world.World;
-import net.canarymod.api.world.blocks.Block;
-import net.canarymod.hook.HookHandler;
-import net.canarymod.hook.system.ServerTickHook;
-import net.canarymod.plugin.Priority;
 import net.gmx.nosefish.fishysigns.plugin.FishySigns;
-import net.gmx.nosefish.fishysigns.plugin.engine.ActivationManager;
-import net.gmx.nosefish.fishysigns.task.FishyTask;
+import net.gmx.nosefish.fishysigns.plugin.engine.ActivationBatch;
+import net.gmx.nosefish.fishysigns.plugin.engine.TickPipeline;
 import net.gmx.nosefish.fishysigns.watcher.activator.ActivatorBlocks;
 import net.gmx.nosefish.fishysigns.watcher.activator.FishyBlockStateChange;
+import net.gmx.nosefish.fishysigns.world.BlockStateStore;
 import net.gmx.nosefish.fishysigns.world.FishyBlockState;
 
 
@@ -32,27 +30,44 @@ import net.gmx.nosefish.fishysigns.world.FishyBlockState;
  * A typical server will still be able to handle a few thousand registered blocks without lag.
  * (10000 blocks in 6ms on a Core 2 Quad Q9550, Java 7 on Linux in a VirtualBox VM)
  * Use one of the other watchers over this if they will do the job.
+ * <p>
+ * Watched blocks are grouped by chunk. Chunks that aren't loaded are skipped as a whole,
+ * and each loaded chunk is looked up once per pass. With <code>setScanBudget</code>,
+ * a pass can be spread over several ticks. The last seen states are kept packed in a
+ * <code>BlockStateStore</code>, so a pass without changes does not allocate.
+ * <p>
+ * Polling happens in the collect phase of the <code>TickPipeline</code>.
  * 
  * Extension of this class is not supported.
  * 
  * @author Stefan Steinheimer (nosefish)
  *
  */
-public final class PollingBlockChangeWatcher extends BlockLocationWatcher{
+public final class PollingBlockChangeWatcher extends BlockLocationWatcher implements ITickCollector{
 	private static PollingBlockChangeWatcher instance = new PollingBlockChangeWatcher();	
 	static{
 		FishySigns.addWatcher(instance);
 	}
 
-	// the blocks we're watching, and the state they had the last time we looked
-	private final ConcurrentMap<FishyLocationInt, FishyBlockState> worldBlockStates;
+	// the blocks we're watching, grouped by chunk (guarded by this)
+	private final Map<FishyChunk, ChunkBucket> chunkBuckets;
+	private final List<ChunkBucket> bucketList;
+	// the state the blocks had the last time we looked (guarded by this)
+	private final BlockStateStore blockStates;
+	
+	// budgeted scanning: maximum time per tick, 0 to scan everything on every tick
+	private volatile long scanBudgetNanos = 0L;
+	// budgeted scanning: index of the next chunk to scan (server thread only)
+	private int scanCursor = 0;
 
 	/**
 	 * Private Constructor - this is a Singleton with a static initializer.
 	 * Use <code>getInstance</code> to access it.
 	 */
 	private PollingBlockChangeWatcher() {
-		this.worldBlockStates = new ConcurrentHashMap<FishyLocationInt, FishyBlockState>(64, 0.9F, 2);
+		this.chunkBuckets = new HashMap<FishyChunk, ChunkBucket>(16, 0.9F);
+		this.bucketList = new ArrayList<ChunkBucket>(16);
+		this.blockStates = new BlockStateStore(64);
 	}
 
 
@@ -65,6 +80,23 @@ public final class PollingBlockChangeWatcher extends BlockLocationWatcher{
 		return instance;
 	}
 
+	/**
+	 * Limits the time spent polling on each tick. When the budget
+	 * is used up, the scan continues with the next chunk on the following tick,
+	 * so a full pass over all watched blocks may take several ticks.
+	 * <p>
+	 * The budget is checked after each chunk, so it may be exceeded by the
+	 * time it takes to scan one chunk.
+	 * 
+	 * @param time
+	 *     maximum time per tick, a value <= 0 scans all blocks on every tick (default)
+	 * @param unit
+	 *     the unit of <code>time</code>
+	 */
+	public void setScanBudget(long time, TimeUnit unit) {
+		this.scanBudgetNanos = (time > 0L) ? TimeUnit.NANOSECONDS.convert(time, unit) : 0L;
+	}
+
 
 	/**
 	 * After registering, the <code>Activatable</code> will be activated whenever
@@ -82,11 +114,22 @@ public final class PollingBlockChangeWatcher extends BlockLocationWatcher{
 	public void register(Long activatableID, FishyLocationInt location) {
 		synchronized(this) {
 			super.register(activatableID, location);
-			// Put an invalid block state into the map
+			FishyChunk chunk = FishyChunk.getChunkContaining(location);
+			ChunkBucket bucket = chunkBuckets.get(chunk);
+			if (bucket == null) {
+				bucket = new ChunkBucket(chunk, bucketList.size());
+				chunkBuckets.put(chunk, bucket);
+				bucketList.add(bucket);
+			}
+			// Store an invalid block state
 			// to make it send the current block state
 			// to the Activatable on the next check pass.
-			FishyBlockState forceUpdate = new FishyBlockState((short)-1, (short)-1);
-			worldBlockStates.put(location, forceUpdate);
+			int index = bucket.indexOf(location);
+			if (index < 0) {
+				bucket.add(location, blockStates.register(FishyBlockState.PACKED_INVALID));
+			} else {
+				blockStates.set(bucket.slots[index], FishyBlockState.PACKED_INVALID);
+			}
 		}
 	}
 
@@ -96,97 +139,251 @@ public final class PollingBlockChangeWatcher extends BlockLocationWatcher{
 	@Override
 	public void remove(Long activatableID) {
 		synchronized(this) {
-			List <FishyLocationInt> removedKeys = blockLocationIndex.removeValue(activatableID);	
+			List <FishyLocationInt> removedKeys = removeFromIndex(activatableID);
 			for (FishyLocationInt loc : removedKeys) {
-				worldBlockStates.remove(loc);
+				if (isWatched(loc)) {
+					// someone else is still interested in this block
+					continue;
+				}
+				FishyChunk chunk = FishyChunk.getChunkContaining(loc);
+				ChunkBucket bucket = chunkBuckets.get(chunk);
+				if (bucket == null) {
+					continue;
+				}
+				int index = bucket.indexOf(loc);
+				if (index >= 0) {
+					blockStates.release(bucket.removeAt(index));
+				}
+				if (bucket.size == 0) {
+					removeBucket(bucket);
+				}
 			}
 		}
 	}
 	
-	@HookHandler(priority=Priority.PASSIVE)
-	public void onTick(ServerTickHook hook) {
+	/**
+	 * Removes an empty bucket. The last bucket in the list takes its place.
+	 * Call only while synchronized on this.
+	 */
+	private void removeBucket(ChunkBucket bucket) {
+		chunkBuckets.remove(bucket.chunk);
+		ChunkBucket last = bucketList.remove(bucketList.size() - 1);
+		if (last != bucket) {
+			bucketList.set(bucket.listIndex, last);
+			last.listIndex = bucket.listIndex;
+		}
+	}
+	
+	@Override
+	public Job collect(long tick) {
 		if (! enabled) {
-			return;
+			return null;
 		}
 		List<FishyBlockStateChange> changes = pollBlockStates();
-		if (! changes.isEmpty()) {
-			ActivationTask activate = new ActivationTask(changes);
-			activate.submit();
+		if (changes == null) {
+			return null;
 		}
+		return new ActivationJob(changes);
 	}
 
 
+	/**
+	 * Polls the watched blocks. The lock is taken once per chunk,
+	 * so that registration is never blocked for a whole pass.
+	 * 
+	 * @return
+	 *     the changes, or <code>null</code> if nothing has changed
+	 */
 	private List<FishyBlockStateChange> pollBlockStates() {
-		List<FishyBlockStateChange> changes = new LinkedList<FishyBlockStateChange>();
-		if(worldBlockStates.isEmpty()) {
+		List<FishyBlockStateChange> changes = null;
+		long budget = scanBudgetNanos;
+		long deadline = System.nanoTime() + budget;
+		int scanned = 0;
+		int index = (budget > 0L) ? scanCursor : 0;
+		while (true) {
+			synchronized(this) {
+				int bucketCount = bucketList.size();
+				if (scanned >= bucketCount) {
+					// pass complete
+					break;
+				}
+				if (index >= bucketCount) {
+					index = 0;
+				}
+				changes = pollChunk(bucketList.get(index), changes);
+			}
+			++index;
+			++scanned;
+			if (budget > 0L && System.nanoTime() - deadline >= 0L) {
+				break;
+			}
+		}
+		scanCursor = index;
+		return changes;
+	}
+	
+	/**
+	 * Checks all watched blocks in one chunk. The world and the chunk are
+	 * only looked up once, and chunks that aren't loaded are skipped as a whole.
+	 * Call only while synchronized on this.
+	 * 
+	 * @return
+	 *     <code>changes</code>, or a new list if it was <code>null</code> and a change was found
+	 */
+	private List<FishyBlockStateChange> pollChunk(ChunkBucket bucket, List<FishyBlockStateChange> changes) {
+		World world = bucket.chunk.getWorld().getWorldIfLoaded();
+		if (world == null) {
 			return changes;
 		}
-		for (FishyLocationInt location : worldBlockStates.keySet()) {
-			World world = location.getWorld().getWorldIfLoaded();
-			if (world == null) continue;
-			if (! world.isChunkLoaded(FishyChunk.worldToChunk(location.getIntX()), FishyChunk.worldToChunk(location.getIntZ()))) {
-				continue;
-			}
-			// world and chunk are loaded, let's check out this block
-			Block block = world.getBlockAt(location.getIntX(), location.getIntY(), location.getIntZ());
-			FishyBlockState oldState = worldBlockStates.get(location);
-			if (oldState != null && ! oldState.equalsBlock(block)) {
-				// If we're unlucky, the entry has been removed since we retrieved the value.
-				// In that case, there's no point to process it further - nobody cares about
-				// the block anymore.
-				FishyBlockState newState = new FishyBlockState(block);
-				// update the block state in the map
-				FishyBlockState stillRelevant = worldBlockStates.replace(location, newState);
-				if (stillRelevant != null) {
-					// if it hasn't been removed, remember this as changed for later processing
-					changes.add(new FishyBlockStateChange(location, oldState, newState));
+		int chunkX = bucket.chunk.getChunkX();
+		int chunkZ = bucket.chunk.getChunkZ();
+		if (! world.isChunkLoaded(chunkX, chunkZ)) {
+			return changes;
+		}
+		Chunk chunk = world.getChunk(chunkX, chunkZ);
+		if (chunk == null) {
+			return changes;
+		}
+		// world and chunk are loaded, let's check out the blocks
+		for (int i = 0; i < bucket.size; ++i) {
+			int slot = bucket.slots[i];
+			int x = bucket.relX[i];
+			int y = bucket.y[i];
+			int z = bucket.relZ[i];
+			int newState = FishyBlockState.pack((short) chunk.getBlockTypeAt(x, y, z),
+			                                    (short) chunk.getBlockDataAt(x, y, z));
+			int oldState = blockStates.get(slot);
+			if (oldState != newState) {
+				blockStates.set(slot, newState);
+				if (changes == null) {
+					changes = new ArrayList<FishyBlockStateChange>();
 				}
+				changes.add(new FishyBlockStateChange(bucket.locations[i],
+						FishyBlockState.unpack(oldState),
+						FishyBlockState.unpack(newState)));
 			}
 		}
 		return changes;
 	}
 
 
+	@Override
+	public void enable() {
+		super.enable();
+		TickPipeline.getInstance().addCollector(this);
+	}
+
+
 	@Override
 	public void disable() {
+		TickPipeline.getInstance().removeCollector(this);
 		super.disable();
-		worldBlockStates.clear();
+		synchronized(this) {
+			chunkBuckets.clear();
+			bucketList.clear();
+			blockStates.clear();
+			scanCursor = 0;
+		}
+	}
+	
+	/**
+	 * The watched blocks in one chunk. Coordinates are stored relative
+	 * to the chunk, ready to be passed to <code>Chunk.getBlockTypeAt</code>.
+	 */
+	private static final class ChunkBucket {
+		final FishyChunk chunk;
+		int listIndex;
+		FishyLocationInt[] locations = new FishyLocationInt[4];
+		int[] slots = new int[4];
+		int[] relX = new int[4];
+		int[] y = new int[4];
+		int[] relZ = new int[4];
+		int size = 0;
+		
+		ChunkBucket(FishyChunk chunk, int listIndex) {
+			this.chunk = chunk;
+			this.listIndex = listIndex;
+		}
+		
+		int indexOf(FishyLocationInt location) {
+			for (int i = 0; i < size; ++i) {
+				if (locations[i].equals(location)) {
+					return i;
+				}
+			}
+			return -1;
+		}
+		
+		void add(FishyLocationInt location, int slot) {
+			if (size == slots.length) {
+				int newLength = size * 2;
+				locations = Arrays.copyOf(locations, newLength);
+				slots = Arrays.copyOf(slots, newLength);
+				relX = Arrays.copyOf(relX, newLength);
+				y = Arrays.copyOf(y, newLength);
+				relZ = Arrays.copyOf(relZ, newLength);
+			}
+			locations[size] = location;
+			slots[size] = slot;
+			relX[size] = location.getIntX() & 15;
+			y[size] = location.getIntY();
+			relZ[size] = location.getIntZ() & 15;
+			++size;
+		}
+		
+		/**
+		 * Removes the entry at the index, the last entry takes its place.
+		 * 
+		 * @return the store slot of the removed entry
+		 */
+		int removeAt(int index) {
+			int slot = slots[index];
+			int last = size - 1;
+			locations[index] = locations[last];
+			slots[index] = slots[last];
+			relX[index] = relX[last];
+			y[index] = y[last];
+			relZ[index] = relZ[last];
+			locations[last] = null;
+			size = last;
+			return slot;
+		}
 	}
 
 	/**
-	 * Activates the registered IDs outside the server thread
+	 * Finds the recipients of the changes outside the server thread
 	 * @author Stefan Steinheimer (nosefish)
 	 *
 	 */
-	private class ActivationTask extends FishyTask {
+	private class ActivationJob implements Job {
 		private final List<FishyBlockStateChange> changes;
 
-		private ActivationTask(List<FishyBlockStateChange> changes) {
-			super();
-			this.setThreadsafe_IPromiseThatThisDoesNotTouchTheWorld();
+		private ActivationJob(List<FishyBlockStateChange> changes) {
 			this.changes = changes;
 		}
 
 		@Override
-		public void doStuff() {
+		public ActivationBatch prepare() {
 			Map<Long, ActivatorBlocks> toActivate = new TreeMap<Long, ActivatorBlocks>();
 			for (FishyBlockStateChange change : changes) {
 				// find out who is interested in this change
-				Set<Long> recipients = PollingBlockChangeWatcher.this.blockLocationIndex.get(change.getLocation());
+				long[] recipients = PollingBlockChangeWatcher.this.getWatchers(change.getLocation());
 				if (recipients == null) {
 					continue;
 				}
-				synchronized(recipients) {
-					for (Long id : recipients) {
-						// add change to recipient's Activator
-						if (! toActivate.containsKey(id)) {
-							toActivate.put(id, new ActivatorBlocks());
-						}
-						toActivate.get(id).add(change);
+				for (long id : recipients) {
+					// add change to recipient's Activator
+					if (! toActivate.containsKey(id)) {
+						toActivate.put(id, new ActivatorBlocks());
 					}
+					toActivate.get(id).add(change);
 				}
 			}
-			ActivationManager.getInstance().activateAll(toActivate);
+			ActivationBatch batch = new ActivationBatch(toActivate.size());
+			for (Map.Entry<Long, ActivatorBlocks> entry : toActivate.entrySet()) {
+				batch.add(entry.getKey(), entry.getValue());
+			}
+			return batch;
 		}
 	}
 }
@@ -0,0 +1,194 @@
+package net.gmx.nosefish.fishysigns.watcher;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import net.gmx.nosefish.fishylib.worldmath.FishyLocationInt;
+import net.gmx.nosefish.fishylib.worldmath.FishyWorld;
+import net.gmx.nosefish.fishysigns.watcher.activator.FishyRedstoneChange;
+import net.gmx.nosefish.fishysigns.world.FishyBlockState;
+import net.gmx.nosefish.fishysigns.world.FishyLocationBlockState;
+
+/**
+ * Multi-producer, single-consumer buffer for redstone changes.
+ * <p>
+ * Producers (the hook) claim a slot in the current <code>Segment</code>
+ * with one atomic increment and write the change into preallocated
+ * parallel arrays; nothing is allocated. Only plain values are stored,
+ * read from the block in the server thread, so that the consumer
+ * never touches the world. Only when a segment is full,
+ * the change is stored as a <code>FishyRedstoneChange</code> in the
+ * segment's overflow queue, and the next segment is made larger.
+ * <p>
+ * The consumer swaps in an empty segment with <code>swap</code>, hands
+ * the full one to another thread that turns it into
+ * <code>FishyRedstoneChange</code>s with <code>Segment.drain</code>,
+ * and returns it with <code>recycle</code> afterwards.
+ */
+final class RedstoneChangeBuffer {
+	private final AtomicReference<Segment> current;
+	private final ConcurrentLinkedQueue<Segment> freeSegments = new ConcurrentLinkedQueue<Segment>();
+	private volatile int capacity;
+
+	/**
+	 * Constructor
+	 *
+	 * @param initialCapacity
+	 *     the number of changes per tick that fit without overflow
+	 */
+	RedstoneChangeBuffer(int initialCapacity) {
+		this.capacity = Math.max(16, initialCapacity);
+		this.current = new AtomicReference<Segment>(new Segment(capacity));
+	}
+
+	/**
+	 * Adds a change. Thread-safe, does not lock.
+	 *
+	 * @param world
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @param packedState
+	 *     type id and data of the block, see <code>FishyBlockState.pack</code>
+	 * @param oldLevel
+	 * @param newLevel
+	 * @param tick
+	 */
+	void add(FishyWorld world, int x, int y, int z, int packedState, int oldLevel, int newLevel, long tick) {
+		while (true) {
+			Segment segment = current.get();
+			segment.writers.incrementAndGet();
+			if (current.get() != segment) {
+				// swapped out before we registered, try the new one
+				segment.writers.decrementAndGet();
+				continue;
+			}
+			try {
+				int slot = segment.reserved.getAndIncrement();
+				if (slot < segment.worlds.length) {
+					segment.worlds[slot] = world;
+					segment.xs[slot] = x;
+					segment.ys[slot] = y;
+					segment.zs[slot] = z;
+					segment.states[slot] = packedState;
+					segment.oldLevels[slot] = oldLevel;
+					segment.newLevels[slot] = newLevel;
+					segment.ticks[slot] = tick;
+				} else {
+					segment.overflow.add(createChange(world, x, y, z, packedState, oldLevel, newLevel, tick));
+				}
+			} finally {
+				segment.writers.decrementAndGet();
+			}
+			return;
+		}
+	}
+
+	/**
+	 * Replaces the current segment with an empty one.
+	 * Must only be called by the consumer.
+	 *
+	 * @return
+	 *     the previous segment with all its changes written,
+	 *     or <code>null</code> if it was empty
+	 */
+	Segment swap() {
+		Segment empty = freeSegments.poll();
+		if (empty == null || empty.worlds.length < capacity) {
+			empty = new Segment(capacity);
+		}
+		Segment full = current.getAndSet(empty);
+		// wait for producers that claimed a slot before the swap
+		while (full.writers.get() != 0) {
+			Thread.yield();
+		}
+		if (full.reserved.get() == 0) {
+			freeSegments.offer(full);
+			return null;
+		}
+		return full;
+	}
+
+	/**
+	 * Returns a drained segment for reuse. Thread-safe.
+	 * If the segment has overflowed, it is dropped and
+	 * later segments are allocated with twice the size.
+	 *
+	 * @param segment
+	 */
+	void recycle(Segment segment) {
+		if (segment.reserved.get() > segment.worlds.length) {
+			capacity = Math.max(capacity, segment.worlds.length * 2);
+			return;
+		}
+		segment.reset();
+		freeSegments.offer(segment);
+	}
+
+	private static FishyRedstoneChange createChange(FishyWorld world, int x, int y, int z, int packedState,
+			int oldLevel, int newLevel, long tick) {
+		FishyBlockState state = FishyBlockState.unpack(packedState);
+		FishyLocationBlockState blockState = new FishyLocationBlockState(
+				new FishyLocationInt(world, x, y, z), state.getTypeId(), state.getData());
+		return new FishyRedstoneChange(blockState, oldLevel, newLevel, tick);
+	}
+
+	/**
+	 * The changes of one tick.
+	 */
+	static final class Segment {
+		private final FishyWorld[] worlds;
+		private final int[] xs;
+		private final int[] ys;
+		private final int[] zs;
+		private final int[] states;
+		private final int[] oldLevels;
+		private final int[] newLevels;
+		private final long[] ticks;
+		private final AtomicInteger reserved = new AtomicInteger(0);
+		private final AtomicInteger writers = new AtomicInteger(0);
+		private final ConcurrentLinkedQueue<FishyRedstoneChange> overflow =
+				new ConcurrentLinkedQueue<FishyRedstoneChange>();
+
+		private Segment(int capacity) {
+			this.worlds = new FishyWorld[capacity];
+			this.xs = new int[capacity];
+			this.ys = new int[capacity];
+			this.zs = new int[capacity];
+			this.states = new int[capacity];
+			this.oldLevels = new int[capacity];
+			this.newLevels = new int[capacity];
+			this.ticks = new long[capacity];
+		}
+
+		/**
+		 * Creates the <code>FishyRedstoneChange</code>s, in the order they were added
+		 * (except for those that did not fit, which come last).
+		 *
+		 * @return the changes
+		 */
+		List<FishyRedstoneChange> drain() {
+			int count = Math.min(reserved.get(), worlds.length);
+			List<FishyRedstoneChange> changes = new ArrayList<FishyRedstoneChange>(count + overflow.size());
+			for (int i = 0; i < count; ++i) {
+				changes.add(createChange(worlds[i], xs[i], ys[i], zs[i], states[i],
+				                         oldLevels[i], newLevels[i], ticks[i]));
+			}
+			changes.addAll(overflow);
+			return changes;
+		}
+
+		private void reset() {
+			int count = Math.min(reserved.get(), worlds.length);
+			for (int i = 0; i < count; ++i) {
+				// don't keep unloaded worlds alive
+				worlds[i] = null;
+			}
+			overflow.clear();
+			reserved.set(0);
+		}
+	}
+}
@@ -1,11 +1,11 @@
 package net.gmx.nosefish.fishysigns.watcher;
 
-import java.util.LinkedList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.TreeMap;
-import java.util.concurrent.atomic.AtomicReference;
 
 import net.canarymod.api.world.blocks.Block;
 import net.canarymod.hook.HookHandler;
@@ -14,20 +14,27 @@ import net.canarymod.plugin.Priority;
 import net.gmx.nosefish.fishysigns.Log;
 import net.gmx.nosefish.fishysigns.exception.DisabledException;
 import net.gmx.nosefish.fishysigns.plugin.FishySigns;
-import net.gmx.nosefish.fishysigns.plugin.engine.ActivationManager;
+import net.gmx.nosefish.fishysigns.plugin.engine.ActivationBatch;
 import net.gmx.nosefish.fishysigns.plugin.engine.ServerTicker;
-import net.gmx.nosefish.fishysigns.task.FishyTask;
+import net.gmx.nosefish.fishysigns.plugin.engine.TickPipeline;
 import net.gmx.nosefish.fishysigns.watcher.activator.ActivatorRedstone;
 import net.gmx.nosefish.fishysigns.watcher.activator.FishyRedstoneChange;
+import net.gmx.nosefish.fishysigns.world.FishyBlockState;
 import net.gmx.nosefish.fishylib.worldmath.FishyLocationInt;
+import net.gmx.nosefish.fishylib.worldmath.FishyWorld;
 
-public class RedstoneChangeWatcher extends BlockLocationWatcher{
+/**
+ * Collects redstone changes of watched blocks during each tick. In the
+ * collect phase of the <code>TickPipeline</code>, the changes of the
+ * last tick are handed over for activation.
+ */
+public class RedstoneChangeWatcher extends BlockLocationWatcher implements ITickCollector{
 	private static RedstoneChangeWatcher instance = new RedstoneChangeWatcher();
 	static {
 		FishySigns.addWatcher(instance);
 	}
 	
-	private RedstoneChangeCollector rsChangeCollector = null;
+	private final RedstoneChangeBuffer changeBuffer = new RedstoneChangeBuffer(256);
 	
 	private RedstoneChangeWatcher() {
 		
@@ -36,17 +43,12 @@ public class RedstoneChangeWatcher extends BlockLocationWatcher{
 	@Override
 	public void enable() {
 		super.enable();
-		if (this.rsChangeCollector != null) {
-			this.rsChangeCollector.cancel();
-		}
-		this.rsChangeCollector = new RedstoneChangeCollector();
-		this.rsChangeCollector.submit();
+		TickPipeline.getInstance().addCollector(this);
 	}
 	
 	public void disable() {
+		TickPipeline.getInstance().removeCollector(this);
 		super.disable();
-		this.rsChangeCollector.cancel();
-		this.rsChangeCollector = null;
 	}
 	
 	@HookHandler(priority=Priority.PASSIVE)
@@ -54,9 +56,20 @@ public class RedstoneChangeWatcher extends BlockLocationWatcher{
 		if (! enabled) {
 			return;
 		}
-		Block block = hook.getSourceBlock();
 		int oldLevel = hook.getOldLevel();
 		int newLevel = hook.getNewLevel();
+		if ((oldLevel == 0) == (newLevel == 0)) {
+			// no high/low change
+			return;
+		}
+		Block block = hook.getSourceBlock();
+		int x = block.getX();
+		int y = block.getY();
+		int z = block.getZ();
+		FishyWorld world = getFishyWorld(block);
+		if (this.getWatchers(world, x, y, z) == null) {
+			return;
+		}
 		long tickStamp;
 		try {
 			tickStamp = ServerTicker.getInstance().getTickCount();
@@ -64,87 +77,106 @@ public class RedstoneChangeWatcher extends BlockLocationWatcher{
 			Log.get().logWarning("RedstoneChangeWatcher: the ServerTicker is disabled, ignoring hook call");
 			return;
 		}
-		if ((oldLevel == 0) != (newLevel == 0) // high/low change, boolean != is XOR
-			&& this.blockLocationIndex.containsKey(new FishyLocationInt(block.getLocation()))) {
-			this.rsChangeCollector.add(new FishyRedstoneChange(block, oldLevel, newLevel, tickStamp));
-		}
+		changeBuffer.add(world, x, y, z,
+		                 FishyBlockState.pack(block.getTypeId(), block.getData()),
+		                 oldLevel, newLevel, tickStamp);
 	}
 	
+	
 	public static RedstoneChangeWatcher getInstance() {
 		return instance;
 	}
 	
 	
 	/**
-	 * Collects all redstone changes that arrive during one tick.
-	 * At the end of each tick it creates an <code>ActivationTask</code>
-	 * with the changes and resets the collection list.
-	 * 
-	 * @author Stefan Steinheimer (nosefish)
-	 *
+	 * Swaps the change buffer and hands the changes of the last tick
+	 * to an <code>ActivationJob</code>.
 	 */
-	private class RedstoneChangeCollector extends FishyTask {
-		private final AtomicReference<List<FishyRedstoneChange>> changeBuffer;
-		
-		public RedstoneChangeCollector() {
-			this.setTickDelay(0);
-			this.setTickRepeatDelay(1);
-			changeBuffer = 
-					new AtomicReference<List<FishyRedstoneChange>>(
-							new LinkedList<FishyRedstoneChange>());
-		}		
-		public void add(FishyRedstoneChange rsChange) {
-			changeBuffer.get().add(rsChange);
+	@Override
+	public Job collect(long tick) {
+		if (! enabled) {
+			return null;
 		}
-		
-		public void doStuff(){
-			this.setNextTask(null);
-			List<FishyRedstoneChange> lastTickChanges = changeBuffer.get();
-			if (! lastTickChanges.isEmpty()) {
-				changeBuffer.set(new LinkedList<FishyRedstoneChange>());
-				this.setNextTask(new ActivationTask(lastTickChanges));
-			}
+		RedstoneChangeBuffer.Segment lastTickChanges = changeBuffer.swap();
+		if (lastTickChanges == null) {
+			return null;
 		}
-	}// end of internal class
+		return new ActivationJob(changeBuffer, lastTickChanges);
+	}
 
 
 	/**
-	 * Prepares activators with all collected changes by id and 
-	 * activates the <code>Activatables</code> that
+	 * Prepares activators with all collected changes by id
+	 * for the <code>Activatables</code> that
 	 * are registered for them.
 	 * 
 	 * @author Stefan Steinheimer (nosefish)
 	 *
 	 */
-	private class ActivationTask extends FishyTask {
-		private final List<FishyRedstoneChange> changes;
+	private class ActivationJob implements Job {
+		private final RedstoneChangeBuffer buffer;
+		private final RedstoneChangeBuffer.Segment segment;
 		
-		public ActivationTask(List<FishyRedstoneChange> changes) {
-			super();
-			this.setThreadsafe_IPromiseThatThisDoesNotTouchTheWorld();
-			this.changes = changes;
+		public ActivationJob(RedstoneChangeBuffer buffer, RedstoneChangeBuffer.Segment segment) {
+			this.buffer = buffer;
+			this.segment = segment;
 		}
 		
 		@Override
-		public void doStuff() {
+		public ActivationBatch prepare() {
+			Collection<FishyRedstoneChange> changes = coalesce(segment.drain());
+			buffer.recycle(segment);
 			Map<Long, ActivatorRedstone> activators = new TreeMap<Long, ActivatorRedstone>();
 			// group changes by ids to activate
 			for (FishyRedstoneChange change : changes) {
-				Set<Long> idsToActivate = blockLocationIndex.get(change.getLocation());
+				long[] idsToActivate = getWatchers(change.getLocation());
 				if (idsToActivate == null) {
 					continue;
 				}
-				// synchronizedSet mandates synchronization when iterating
-				synchronized(idsToActivate) {
-					for (long id : idsToActivate) {
-						if (! activators.containsKey(id)) {
-							activators.put(id, new ActivatorRedstone());
-						}
-						activators.get(id).addChange(change);
+				for (long id : idsToActivate) {
+					if (! activators.containsKey(id)) {
+						activators.put(id, new ActivatorRedstone());
 					}
+					activators.get(id).addChange(change);
+				}
+			}
+			ActivationBatch batch = new ActivationBatch(activators.size());
+			for (Map.Entry<Long, ActivatorRedstone> entry : activators.entrySet()) {
+				batch.add(entry.getKey(), entry.getValue());
+			}
+			return batch;
+		}
+		
+		/**
+		 * Merges all changes of a location into one net change, so that
+		 * every recipient sees at most one change per location and tick.
+		 * Net changes without a high/low transition and without a glitch
+		 * are dropped, they can't change any input.
+		 * 
+		 * @param changes
+		 *     the changes in the order they happened
+		 * @return
+		 *     the net changes, in the order of the first change at each location
+		 */
+		private Collection<FishyRedstoneChange> coalesce(List<FishyRedstoneChange> changes) {
+			Map<FishyLocationInt, FishyRedstoneChange> netChanges =
+					new LinkedHashMap<FishyLocationInt, FishyRedstoneChange>(changes.size() * 2);
+			for (FishyRedstoneChange change : changes) {
+				FishyRedstoneChange previous = netChanges.get(change.getLocation());
+				if (previous == null) {
+					netChanges.put(change.getLocation(), change);
+				} else {
+					netChanges.put(change.getLocation(), previous.coalesce(change));
+				}
+			}
+			Iterator<FishyRedstoneChange> it = netChanges.values().iterator();
+			while (it.hasNext()) {
+				FishyRedstoneChange change = it.next();
+				if (! change.isDigitalChange() && change.getGlitchCount() == 0) {
+					it.remove();
 				}
 			}
-			ActivationManager.getInstance().activateAll(activators);
+			return netChanges.values();
 		}
 	} // end of internal class
 }
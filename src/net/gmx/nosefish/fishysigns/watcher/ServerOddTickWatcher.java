@@ -1,35 +1,28 @@
 package net.gmx.nosefish.fishysigns.watcher;
 
-import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
-import java.util.Map;
 import java.util.Set;
 
 
-import net.canarymod.hook.HookHandler;
-import net.canarymod.hook.system.ServerTickHook;
-import net.canarymod.plugin.Priority;
-import net.gmx.nosefish.fishysigns.exception.DisabledException;
 import net.gmx.nosefish.fishysigns.plugin.FishySigns;
-import net.gmx.nosefish.fishysigns.plugin.engine.ActivationManager;
-import net.gmx.nosefish.fishysigns.plugin.engine.ServerTicker;
-import net.gmx.nosefish.fishysigns.task.FishyTask;
+import net.gmx.nosefish.fishysigns.plugin.engine.ActivationBatch;
+import net.gmx.nosefish.fishysigns.plugin.engine.TickPipeline;
 import net.gmx.nosefish.fishysigns.watcher.activator.ActivatorServerTick;
-import net.gmx.nosefish.fishysigns.watcher.activator.IActivator;
 
 /**
  * Activates registered Activatables on every odd-numbered tick.
+ * Runs in the collect phase of the <code>TickPipeline</code>.
  * 
  * @author Stefan Steinheimer
  *
  */
-public class ServerOddTickWatcher implements IFishyWatcher{
+public class ServerOddTickWatcher implements IFishyWatcher, ITickCollector{
 	private static ServerOddTickWatcher instance = new ServerOddTickWatcher();
 	static {
 		FishySigns.addWatcher(instance);
 	}
 	
-	private boolean enabled = false;
+	private volatile boolean enabled = false;
 	
 	private Set<Long> registeredIds = new LinkedHashSet<Long>(32);
 	
@@ -49,23 +42,25 @@ public class ServerOddTickWatcher implements IFishyWatcher{
 		}
 	}
 	
-	@HookHandler(priority=Priority.PASSIVE)
-	public void onTick(ServerTickHook hook) {
-		if (! enabled) {
-			return;
-		}
-		long tick;
-		try {
-			tick = ServerTicker.getInstance().getTickCount();
-		} catch (DisabledException e) {
-			// plugin is being disabled
-			return;
+	@Override
+	public Job collect(long tick) {
+		if (! enabled || (tick & 1) == 0) {
+			return null;
 		}
-		if ((tick & 1) == 0) {
-			return;
+		long[] toActivate;
+		// let's get this over with quickly in order to not block registration
+		// longer than necessary
+		synchronized(registeredIds) {
+			if (registeredIds.isEmpty()) {
+				return null;
+			}
+			toActivate = new long[registeredIds.size()];
+			int i = 0;
+			for (Long id : registeredIds) {
+				toActivate[i++] = id;
+			}
 		}
-		ActivationTask activate = new ActivationTask(tick);
-		activate.submit();
+		return new ActivationJob(tick, toActivate);
 	}
 	
 	/**
@@ -73,37 +68,35 @@ public class ServerOddTickWatcher implements IFishyWatcher{
 	 * @author Stefan Steinheimer (nosefish)
 	 *
 	 */
-	private class ActivationTask extends FishyTask {
-		long tick;
+	private static class ActivationJob implements Job {
+		private final long tick;
+		private final long[] toActivate;
 		
-		public ActivationTask(long tick) {
+		public ActivationJob(long tick, long[] toActivate) {
 			this.tick = tick;
-			this.setThreadsafe_IPromiseThatThisDoesNotTouchTheWorld();
+			this.toActivate = toActivate;
 		}
 		
 		@Override
-		public void doStuff() {
-			IActivator activator = new ActivatorServerTick(tick);
-			Map<Long, IActivator> activationMap = new LinkedHashMap<Long, IActivator>();
-			// let's get this over with quickly in order to not block registration
-			// (which happens in the main thread) longer than necessary
-			synchronized(registeredIds) {
-				for (Long id : registeredIds) {
-					activationMap.put(id, activator);
-				}
-			}
-			ActivationManager.getInstance().activateAll(activationMap);
-		}	
+		public ActivationBatch prepare() {
+			ActivationBatch batch = new ActivationBatch(toActivate.length);
+			batch.addAll(new ActivatorServerTick(tick), toActivate);
+			return batch;
+		}
 	}
 
 	@Override
 	public void enable() {
 		enabled = true;
+		TickPipeline.getInstance().addCollector(this);
 	}
 
 	@Override
 	public void disable() {
 		enabled = false;
-		registeredIds.clear();
+		TickPipeline.getInstance().removeCollector(this);
+		synchronized (registeredIds) {
+			registeredIds.clear();
+		}
 	}
 }
@@ -10,12 +10,50 @@ public class FishyRedstoneChange {
 	protected final int oldLevel;
 	protected final int newLevel;
 	protected final long tickStamp;
+	protected final int glitchCount;
 	
 	public FishyRedstoneChange(Block block, int oldLevel, int newLevel, long tickStamp) {
-		this.blockState = new FishyLocationBlockState(block);
+		this(new FishyLocationBlockState(block), oldLevel, newLevel, tickStamp, 0);
+	}
+	
+	public FishyRedstoneChange(FishyLocationBlockState blockState, int oldLevel, int newLevel, long tickStamp) {
+		this(blockState, oldLevel, newLevel, tickStamp, 0);
+	}
+	
+	protected FishyRedstoneChange(FishyLocationBlockState blockState, int oldLevel, int newLevel,
+			long tickStamp, int glitchCount) {
+		this.blockState = blockState;
 		this.oldLevel = oldLevel;
 		this.newLevel = newLevel;
 		this.tickStamp = tickStamp;
+		this.glitchCount = glitchCount;
+	}
+	
+	/**
+	 * Merges this change with a later change at the same location
+	 * into one net change: the old level of this one, the new level
+	 * and block state of the later one.
+	 * <p>
+	 * A pulse that starts and ends within the same tick leaves no
+	 * high/low transition in the net change, but is counted in
+	 * its glitch count.
+	 * 
+	 * @param later
+	 *     the next change at this location
+	 * @return
+	 *     the net change
+	 */
+	public FishyRedstoneChange coalesce(FishyRedstoneChange later) {
+		return new FishyRedstoneChange(later.blockState,
+				this.oldLevel,
+				later.newLevel,
+				later.tickStamp,
+				this.getTransitionCount() + later.getTransitionCount()
+				- (((this.oldLevel == 0) != (later.newLevel == 0)) ? 1 : 0));
+	}
+	
+	private int getTransitionCount() {
+		return glitchCount + (isDigitalChange() ? 1 : 0);
 	}
 	
 	public FishyLocationInt getLocation() {
@@ -62,4 +100,16 @@ public class FishyRedstoneChange {
 	public long getTick() {
 		return tickStamp;
 	}
+	
+	/**
+	 * Gets the number of high/low transitions that were merged away
+	 * by <code>coalesce</code>. Always even: a high to low to high
+	 * pulse within one tick, for example, shows up as a change from
+	 * high to high with a glitch count of 2.
+	 * 
+	 * @return the number of lost transitions
+	 */
+	public int getGlitchCount() {
+		return glitchCount;
+	}
 }
@@ -0,0 +1,80 @@
+package net.gmx.nosefish.fishysigns.world;
+
+import net.gmx.nosefish.fishylib.worldmath.FishyLocationInt;
+
+/**
+ * Packs block coordinates into a single <code>long</code>,
+ * for use as a key in primitive maps.
+ * <p>
+ * Layout, from the most significant bit: x (26 bits, signed),
+ * z (26 bits, signed), y (11 bits), and a lowest bit that is
+ * always set. That covers the whole world border of +/-30,000,000
+ * and heights up to 2047. The key is never <code>0</code>, so it
+ * can be stored in a <code>ConcurrentLongMap</code>.
+ * <p>
+ * The world is not part of the key; keep one map per world,
+ * like <code>BlockLocationWatcher</code> does.
+ */
+public final class BlockKey {
+	private static final int XZ_BITS = 26;
+	private static final int Y_BITS = 11;
+	private static final long XZ_MASK = (1L << XZ_BITS) - 1L;
+	private static final long Y_MASK = (1L << Y_BITS) - 1L;
+	private static final int Y_SHIFT = 1;
+	private static final int Z_SHIFT = Y_SHIFT + Y_BITS;
+	private static final int X_SHIFT = Z_SHIFT + XZ_BITS;
+	private static final long VALID_BIT = 1L;
+
+	private BlockKey() {
+		// static utility class
+	}
+
+	/**
+	 * Packs block coordinates.
+	 * 
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @return the key
+	 */
+	public static long pack(int x, int y, int z) {
+		return ((x & XZ_MASK) << X_SHIFT)
+				| ((z & XZ_MASK) << Z_SHIFT)
+				| ((y & Y_MASK) << Y_SHIFT)
+				| VALID_BIT;
+	}
+
+	/**
+	 * Packs the coordinates of a location.
+	 * 
+	 * @param location
+	 * @return the key
+	 */
+	public static long pack(FishyLocationInt location) {
+		return pack(location.getIntX(), location.getIntY(), location.getIntZ());
+	}
+
+	/**
+	 * @param key
+	 * @return the x coordinate
+	 */
+	public static int unpackX(long key) {
+		return (int) (key >> X_SHIFT);
+	}
+
+	/**
+	 * @param key
+	 * @return the y coordinate
+	 */
+	public static int unpackY(long key) {
+		return (int) ((key >>> Y_SHIFT) & Y_MASK);
+	}
+
+	/**
+	 * @param key
+	 * @return the z coordinate
+	 */
+	public static int unpackZ(long key) {
+		return (int) ((key << XZ_BITS) >> X_SHIFT);
+	}
+}
@@ -0,0 +1,98 @@
+package net.gmx.nosefish.fishysigns.world;
+
+import java.util.Arrays;
+
+/**
+ * Compact storage for block states. Each state is packed into an
+ * <code>int</code> (see <code>FishyBlockState.pack</code>) and
+ * kept in a primitive array at a dense slot number that is handed out
+ * by <code>register</code>. Slots of released states are reused.
+ * <p>
+ * Comparing and updating a stored state is an array access and
+ * does not allocate.
+ * <p>
+ * Not thread-safe. The owner must guard all access with its own lock.
+ */
+public final class BlockStateStore {
+	private int[] states;
+	private int[] freeSlots;
+	private int freeCount = 0;
+	private int nextSlot = 0;
+
+	/**
+	 * Constructor
+	 *
+	 * @param initialCapacity
+	 *     the number of states the store can hold before it grows
+	 */
+	public BlockStateStore(int initialCapacity) {
+		int capacity = Math.max(initialCapacity, 16);
+		this.states = new int[capacity];
+		this.freeSlots = new int[16];
+	}
+
+	/**
+	 * Allocates a slot for a block state.
+	 *
+	 * @param packedState
+	 *     the initial state, packed with <code>FishyBlockState.pack</code>
+	 * @return
+	 *     the slot number
+	 */
+	public int register(int packedState) {
+		int slot;
+		if (freeCount > 0) {
+			slot = freeSlots[--freeCount];
+		} else {
+			if (nextSlot == states.length) {
+				states = Arrays.copyOf(states, states.length * 2);
+			}
+			slot = nextSlot++;
+		}
+		states[slot] = packedState;
+		return slot;
+	}
+
+	/**
+	 * Releases a slot for reuse.
+	 *
+	 * @param slot
+	 *     the slot returned by <code>register</code>
+	 */
+	public void release(int slot) {
+		if (freeCount == freeSlots.length) {
+			freeSlots = Arrays.copyOf(freeSlots, freeSlots.length * 2);
+		}
+		states[slot] = FishyBlockState.PACKED_INVALID;
+		freeSlots[freeCount++] = slot;
+	}
+
+	/**
+	 * Gets the packed state in a slot.
+	 *
+	 * @param slot
+	 * @return
+	 *     the packed state
+	 */
+	public int get(int slot) {
+		return states[slot];
+	}
+
+	/**
+	 * Sets the packed state in a slot.
+	 *
+	 * @param slot
+	 * @param packedState
+	 */
+	public void set(int slot, int packedState) {
+		states[slot] = packedState;
+	}
+
+	/**
+	 * Removes all states and frees all slots.
+	 */
+	public void clear() {
+		freeCount = 0;
+		nextSlot = 0;
+	}
+}
@@ -3,6 +3,11 @@ package net.gmx.nosefish.fishysigns.world;
 import net.canarymod.api.world.blocks.Block;
 
 public class FishyBlockState {
+	/**
+	 * The packed form of the invalid state (-1, -1)
+	 */
+	public static final int PACKED_INVALID = pack((short)-1, (short)-1);
+	
 	private final short typeId;
 	private final short data;
 	
@@ -16,6 +21,31 @@ public class FishyBlockState {
 		this.data = data;
 	}
 	
+	/**
+	 * Packs type id and data into an <code>int</code>.
+	 * The type id goes into the upper 16 bits, the data into the lower 16 bits.
+	 * 
+	 * @param typeId
+	 * @param data
+	 * @return
+	 *     the packed block state
+	 */
+	public static int pack(short typeId, short data) {
+		return (typeId << 16) | (data & 0xFFFF);
+	}
+	
+	/**
+	 * Creates a <code>FishyBlockState</code> from its packed form.
+	 * 
+	 * @param packedState
+	 *     the state packed with <code>pack</code>
+	 * @return
+	 *     the unpacked block state
+	 */
+	public static FishyBlockState unpack(int packedState) {
+		return new FishyBlockState((short)(packedState >> 16), (short)packedState);
+	}
+	
 	/**
 	 * @return the typeId
 	 */
@@ -0,0 +1,216 @@
+package net.gmx.nosefish.fishysigns.world;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import net.canarymod.api.world.World;
+import net.canarymod.api.world.blocks.Block;
+import net.canarymod.api.world.blocks.BlockType;
+import net.gmx.nosefish.fishylib.blocks.BlockInfo;
+import net.gmx.nosefish.fishylib.worldmath.FishyLocationInt;
+import net.gmx.nosefish.fishysigns.Log;
+
+/**
+ * Collects lever and block writes from all FishySigns and applies
+ * them to the world once per tick, in the server thread.
+ * <p>
+ * Writes can be requested from any thread, for the current or a later
+ * tick. On each tick, all writes that are due are merged: if a location
+ * is written more than once, only the last write is applied. The
+ * remaining writes are grouped by world, so each world is looked up
+ * only once. The groups are not sorted; they are applied in the order
+ * in which their worlds first appear, and the writes within a group
+ * in the order of their last request.
+ * <p>
+ * A write that fails is logged and skipped; it does not affect the others.
+ * <p>
+ * This replaces a <code>FishyTask</code> per lever switch.
+ */
+public final class WorldWriteBuffer {
+	private static final WorldWriteBuffer instance = new WorldWriteBuffer();
+
+	// filled by any thread, drained by flush
+	private final ConcurrentLinkedQueue<Write> inbox = new ConcurrentLinkedQueue<Write>();
+	// target tick -> location -> write, only used in the server thread
+	private final TreeMap<Long, LinkedHashMap<FishyLocationInt, Write>> pending =
+			new TreeMap<Long, LinkedHashMap<FishyLocationInt, Write>>();
+
+	private WorldWriteBuffer() {
+		// singleton
+	}
+
+	public static WorldWriteBuffer getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Sets a lever. Does nothing if there is no lever at the location.
+	 * Thread-safe.
+	 *
+	 * @param location
+	 * @param on
+	 *     the new state of the lever
+	 * @param targetTick
+	 *     the tick on which to set the lever; if it has passed,
+	 *     the lever will be set on the next tick
+	 */
+	public void setLever(FishyLocationInt location, boolean on, long targetTick) {
+		if (location == null) {
+			return;
+		}
+		inbox.offer(new LeverWrite(location, targetTick, on));
+	}
+
+	/**
+	 * Sets a block. Thread-safe.
+	 *
+	 * @param location
+	 * @param id
+	 *     the block type id
+	 * @param data
+	 *     the block data
+	 * @param force
+	 *     <code>false</code> to replace only air
+	 * @param targetTick
+	 *     the tick on which to set the block; if it has passed,
+	 *     the block will be set on the next tick
+	 */
+	public void setBlock(FishyLocationInt location, short id, short data, boolean force, long targetTick) {
+		if (location == null) {
+			return;
+		}
+		inbox.offer(new BlockWrite(location, targetTick, id, data, force));
+	}
+
+	/**
+	 * Applies all writes that are due.
+	 * Called by the FishyEngineListener when the server ticks. Do not call yourself!
+	 *
+	 * @param currentTick
+	 */
+	public void flush(long currentTick) {
+		Write write;
+		while ((write = inbox.poll()) != null) {
+			LinkedHashMap<FishyLocationInt, Write> tickWrites = pending.get(write.targetTick);
+			if (tickWrites == null) {
+				tickWrites = new LinkedHashMap<FishyLocationInt, Write>();
+				pending.put(write.targetTick, tickWrites);
+			}
+			// re-insert to keep the order of the last writes
+			tickWrites.remove(write.location);
+			tickWrites.put(write.location, write);
+		}
+		if (pending.isEmpty() || pending.firstKey() > currentTick) {
+			return;
+		}
+		// merge due ticks, later ticks win
+		LinkedHashMap<FishyLocationInt, Write> due = new LinkedHashMap<FishyLocationInt, Write>();
+		Iterator<LinkedHashMap<FishyLocationInt, Write>> dueTicks =
+				pending.headMap(currentTick, true).values().iterator();
+		while (dueTicks.hasNext()) {
+			for (Write tickWrite : dueTicks.next().values()) {
+				due.remove(tickWrite.location);
+				due.put(tickWrite.location, tickWrite);
+			}
+			dueTicks.remove();
+		}
+		// group by world
+		Map<Object, List<Write>> byWorld = new LinkedHashMap<Object, List<Write>>();
+		for (Write dueWrite : due.values()) {
+			Object worldKey = dueWrite.location.getWorld();
+			List<Write> worldWrites = byWorld.get(worldKey);
+			if (worldWrites == null) {
+				worldWrites = new ArrayList<Write>();
+				byWorld.put(worldKey, worldWrites);
+			}
+			worldWrites.add(dueWrite);
+		}
+		for (List<Write> worldWrites : byWorld.values()) {
+			World world = worldWrites.get(0).location.getWorld().getWorldIfLoaded();
+			if (world == null) {
+				continue;
+			}
+			for (Write worldWrite : worldWrites) {
+				try {
+					worldWrite.apply(world);
+				} catch (RuntimeException e) {
+					Log.get().logStacktrace("WorldWriteBuffer: exception while writing to "
+							+ worldWrite.location, e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Drops all pending writes.
+	 */
+	public void clear() {
+		inbox.clear();
+		pending.clear();
+	}
+
+
+	private static abstract class Write {
+		protected final FishyLocationInt location;
+		protected final long targetTick;
+
+		protected Write(FishyLocationInt location, long targetTick) {
+			this.location = location;
+			this.targetTick = targetTick;
+		}
+
+		protected abstract void apply(World world);
+	}
+
+	private static final class LeverWrite extends Write {
+		private final boolean on;
+
+		LeverWrite(FishyLocationInt location, long targetTick, boolean on) {
+			super(location, targetTick);
+			this.on = on;
+		}
+
+		@Override
+		protected void apply(World world) {
+			Block block = world.getBlockAt(location.getIntX(),
+			                               location.getIntY(),
+			                               location.getIntZ());
+			if (block != null && block.getTypeId() == BlockType.Lever.getId()) {
+				boolean isOn = BlockInfo.getRedstonePower(block.getTypeId(), block.getData()) > 0;
+				if (on != isOn) {
+					// switch lever
+					block.rightClick(null);
+				}
+			}
+		}
+	}
+
+	private static final class BlockWrite extends Write {
+		private final short id;
+		private final short data;
+		private final boolean force;
+
+		BlockWrite(FishyLocationInt location, long targetTick, short id, short data, boolean force) {
+			super(location, targetTick);
+			this.id = id;
+			this.data = data;
+			this.force = force;
+		}
+
+		@Override
+		protected void apply(World world) {
+			if (! force) {
+				Block block = world.getBlockAt(location.getIntX(), location.getIntY(), location.getIntZ());
+				if (block == null || block.getTypeId() != BlockType.Air.getId()) {
+					return;
+				}
+			}
+			world.setBlockAt(location.getIntX(), location.getIntY(), location.getIntZ(), id, data);
+		}
+	}
+}